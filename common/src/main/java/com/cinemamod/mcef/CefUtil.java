@@ -24,6 +24,7 @@ import net.minecraft.client.Minecraft;
 import org.cef.CefApp;
 import org.cef.CefClient;
 import org.cef.CefSettings;
+import org.cef.handler.CefAppHandlerAdapter;
 
 import java.io.File;
 import java.io.IOException;
@@ -42,6 +43,7 @@ final class CefUtil {
     }
 
     private static boolean init;
+    private static boolean multiThreadedMessageLoop;
     private static CefApp cefAppInstance;
     private static CefClient cefClientInstance;
 
@@ -111,12 +113,47 @@ final class CefUtil {
             cefSettings.user_agent_product = "MCEF/2";
         }
 
+        if (settings.isUsingMultiThreadedMessageLoop() && !platform.isLinux()) {
+            MCEF.getLogger().warn("The multi-threaded message loop is only supported on Linux, it won't be used.");
+        }
+
+        if (settings.isUsingMultiThreadedMessageLoop() && platform.isLinux()
+                && setOptionalSetting(cefSettings, "multi_threaded_message_loop")) {
+            // CEF runs its own UI thread, browser callbacks which need the render thread go through MCEFRenderQueue
+            multiThreadedMessageLoop = true;
+        } else if (settings.isUsingExternalMessagePump() && setOptionalSetting(cefSettings, "external_message_pump")) {
+            // CEF tells us when it has work, so frames without any can skip the message loop work
+            CefApp.addAppHandler(new CefAppHandlerAdapter(cefSwitches) {
+                @Override
+                public void onScheduleMessagePumpWork(long delay_ms) {
+                    MCEFMessagePump.scheduleWork(delay_ms);
+                }
+            });
+            MCEFMessagePump.useExternalPump();
+        }
+
         cefAppInstance = CefApp.getInstance(cefSwitches, cefSettings);
         cefClientInstance = cefAppInstance.createClient();
 
         return init = true;
     }
 
+    /**
+     * Turns on a CefSettings flag which not every java-cef build exposes; upstream java-cef picks the message loop
+     * mode natively and has no field for it.
+     *
+     * @return whether the build has the field, and it was set
+     */
+    private static boolean setOptionalSetting(CefSettings cefSettings, String field) {
+        try {
+            CefSettings.class.getField(field).setBoolean(cefSettings, true);
+            return true;
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            MCEF.getLogger().warn("This java-cef build has no CefSettings." + field + ", it won't be used.");
+            return false;
+        }
+    }
+
     static void shutdown() {
         if (isInit()) {
             init = false;
@@ -129,6 +166,13 @@ final class CefUtil {
         return init;
     }
 
+    /**
+     * @return whether CEF runs its message loop on a thread of its own, so browser callbacks are off the render thread
+     */
+    static boolean isMultiThreadedMessageLoop() {
+        return multiThreadedMessageLoop;
+    }
+
     static CefApp getCefApp() {
         return cefAppInstance;
     }
@@ -0,0 +1,130 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * An index of every {@code assets/<mod>/html/**} file of every mod, which is what {@code mod://} URLs point to.
+ * It's built once, on its own thread at startup, from the asset directories the mod loader's {@link Provider} finds;
+ * after that a {@link ModScheme} lookup is a single hash lookup, and an unknown path is known to be missing right away.
+ * <p>
+ * Until the index is ready, {@link ModScheme} falls back to looking resources up through the class loader.
+ */
+public final class MCEFAssetIndex {
+    private static volatile Map<String, Path> index = null;
+    private static volatile long buildNanos = 0;
+
+    private MCEFAssetIndex() {
+    }
+
+    /**
+     * Finds the asset directories of the mods; implemented per mod loader.
+     */
+    @FunctionalInterface
+    public interface Provider {
+        /**
+         * @return the {@code assets} directory of every mod which has one, in any file system
+         */
+        List<Path> getAssetDirectories() throws IOException;
+    }
+
+    /**
+     * Builds the index on a background thread. Called once by the mod loader specific part of MCEF.
+     */
+    public static void build(Provider provider) {
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                Map<String, Path> entries = new HashMap<>();
+                for (Path assets : provider.getAssetDirectories())
+                    collect(assets, entries);
+                buildNanos = System.nanoTime() - start;
+                index = entries;
+                MCEF.getLogger().info("Indexed " + entries.size() + " mod:// resources in " + buildNanos / 1_000_000 + "ms");
+            } catch (Throwable t) {
+                MCEF.getLogger().error("Could not index mod:// resources, resolving them through the class loader instead", t);
+            }
+        }, "MCEF-AssetIndex");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void collect(Path assets, Map<String, Path> entries) throws IOException {
+        if (!Files.isDirectory(assets)) return;
+        try (Stream<Path> mods = Files.list(assets)) {
+            for (Path mod : (Iterable<Path>) mods::iterator) {
+                Path html = mod.resolve("html");
+                if (!Files.isDirectory(html)) continue;
+                String namespace = normalize(mod.getFileName().toString());
+                try (Stream<Path> files = Files.walk(html)) {
+                    files.filter(Files::isRegularFile).forEach(file -> {
+                        StringBuilder key = new StringBuilder(namespace);
+                        // file systems differ in separators, a jar always uses '/'
+                        for (Path name : html.relativize(file)) key.append('/').append(name);
+                        // the first mod to ship a path wins, like on the class path
+                        entries.putIfAbsent(normalize(key.toString()), file);
+                    });
+                }
+            }
+        }
+    }
+
+    private static String normalize(String path) {
+        return path.toLowerCase(Locale.US);
+    }
+
+    /**
+     * @return whether the index was built; before that, and if building it failed, nothing can be found in it
+     */
+    public static boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * @param mod  the namespace of the mod
+     * @param path the path below the mod's {@code html} directory
+     * @return the file, or null if there is none or the index isn't ready
+     */
+    public static Path find(String mod, String path) {
+        Map<String, Path> index = MCEFAssetIndex.index;
+        return index == null ? null : index.get(normalize(mod + "/" + path));
+    }
+
+    public static int getEntryCount() {
+        Map<String, Path> index = MCEFAssetIndex.index;
+        return index == null ? 0 : index.size();
+    }
+
+    /**
+     * @return how long building the index took
+     */
+    public static long getBuildNanos() {
+        return buildNanos;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import net.minecraft.client.Camera;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.phys.Vec3;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mixes the audio of every browser with a world position (see {@link MCEFBrowser#setAudioPosition(double, double, double)})
+ * into a single stereo OpenAL source, instead of one source per browser.
+ * <p>
+ * Once per frame, each browser's distance to the camera decides its gain (linear falloff over its hearing range,
+ * times the volume of its {@link MCEFBrowser#getAudioOutput() output}) and its stereo pan. Only the loudest {@link #getMaxVoices()} browsers are mixed; the others, and every browser
+ * out of hearing range, are muted at their {@link MCEFAudioStream}, which drops their packets before copying them.
+ * The audible ones are resampled to {@link #SAMPLE_RATE} and summed when the output asks for more audio.
+ */
+public final class MCEFAudioMixer {
+    public static final int SAMPLE_RATE = 48000;
+    /**
+     * How far a playing voice may fall behind the others before the mix stops waiting for it and pads it with silence,
+     * so a page which stalls without ending its stream doesn't hold back every other browser.
+     */
+    private static final int MAX_LAG_FRAMES = SAMPLE_RATE / 10;
+
+    private static final Map<MCEFAudioStream, Voice> VOICES = new IdentityHashMap<>();
+    private static final List<Voice> CANDIDATES = new ArrayList<>();
+    private static final Bus BUS = new Bus();
+    private static final MCEFAudioOutput OUTPUT = new MCEFAudioOutput(BUS);
+
+    private static int maxVoices = 8;
+    private static long mutedStreams = 0;
+
+    private MCEFAudioMixer() {
+    }
+
+    public static MCEFAudioOutput getOutput() {
+        return OUTPUT;
+    }
+
+    public static int getMaxVoices() {
+        return maxVoices;
+    }
+
+    /**
+     * @param maxVoices how many browsers are mixed at most, the loudest ones win
+     */
+    public static void setMaxVoices(int maxVoices) {
+        MCEFAudioMixer.maxVoices = Math.max(1, maxVoices);
+    }
+
+    /**
+     * @return how many browsers are mixed right now
+     */
+    public static int getVoiceCount() {
+        return BUS.voices.size();
+    }
+
+    /**
+     * @return how many browsers with a world position are muted right now, out of range or over {@link #getMaxVoices()}
+     */
+    public static long getMutedStreams() {
+        return mutedStreams;
+    }
+
+    /**
+     * Called by the {@link MCEFBrowserTicker} once per frame, on the render thread.
+     */
+    static void update(List<MCEFBrowser> browsers) {
+        Camera camera = Minecraft.getInstance().gameRenderer.getMainCamera();
+        Vec3 listener = camera.getPosition();
+        Vector3f left = camera.getLeftVector();
+
+        for (Voice voice : VOICES.values()) voice.seen = false;
+        CANDIDATES.clear();
+        for (MCEFBrowser browser : browsers) {
+            MCEFAudioStream stream = browser.getAudioStream();
+            Vec3 position = browser.getAudioPosition();
+            if (stream == null || position == null) continue;
+
+            Voice voice = VOICES.computeIfAbsent(stream, Voice::new);
+            voice.seen = true;
+            double dx = position.x - listener.x, dy = position.y - listener.y, dz = position.z - listener.z;
+            double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            float range = browser.getAudioRange();
+            MCEFAudioOutput output = browser.getAudioOutput();
+            float volume = output == null ? 1 : output.getVolume();
+            voice.targetGain = distance >= range ? 0 : (float) (1 - distance / range) * volume;
+            if (voice.targetGain > 0) {
+                // -1 is fully left, 1 fully right; constant power panning keeps the loudness the same across
+                double pan = distance < 1e-3 ? 0 : -(dx * left.x() + dy * left.y() + dz * left.z()) / distance;
+                double angle = (pan + 1) * Math.PI / 4;
+                voice.targetLeft = voice.targetGain * (float) Math.cos(angle);
+                voice.targetRight = voice.targetGain * (float) Math.sin(angle);
+                CANDIDATES.add(voice);
+            }
+        }
+
+        // the loudest voices are mixed, everything else is muted at the source
+        CANDIDATES.sort((a, b) -> Float.compare(b.targetGain, a.targetGain));
+        List<Voice> mixed = CANDIDATES.size() > maxVoices ? CANDIDATES.subList(0, maxVoices) : CANDIDATES;
+        for (Voice voice : mixed) voice.setMuted(false);
+        mutedStreams = 0;
+        for (Iterator<Voice> iterator = VOICES.values().iterator(); iterator.hasNext(); ) {
+            Voice voice = iterator.next();
+            if (!voice.seen) {
+                // the browser was closed, stopped using audio output or lost its world position
+                voice.stream.setMuted(false);
+                iterator.remove();
+            } else if (!mixed.contains(voice)) {
+                voice.setMuted(true);
+                mutedStreams++;
+            }
+        }
+        BUS.voices.clear();
+        BUS.voices.addAll(mixed);
+
+        if (BUS.voices.isEmpty() && !OUTPUT.isPlaying()) return;
+        OUTPUT.update();
+    }
+
+    /**
+     * The state of a single browser's audio in the mix.
+     */
+    private static final class Voice {
+        private final MCEFAudioStream stream;
+        private boolean seen;
+        private boolean muted = false;
+        private float targetGain;
+        private float targetLeft, targetRight;
+        private float left, right;
+
+        // Linear resampler; input[0] is the last frame consumed, input[1..buffered] are frames not consumed yet
+        private float[] input = new float[0];
+        private float[] scratch = new float[0];
+        private int channels = 0;
+        private int buffered = 0;
+        private double position = 0;
+
+        private Voice(MCEFAudioStream stream) {
+            this.stream = stream;
+        }
+
+        private void setMuted(boolean muted) {
+            if (this.muted == muted) return;
+            this.muted = muted;
+            stream.setMuted(muted);
+            if (muted) {
+                // resume from silence instead of old audio
+                stream.clear();
+                reset();
+                left = right = 0;
+            }
+        }
+
+        private void reset() {
+            Arrays.fill(input, 0);
+            buffered = 0;
+            position = 0;
+        }
+
+        private double step() {
+            return (double) stream.getSampleRate() / SAMPLE_RATE;
+        }
+
+        /**
+         * @return how many output frames this voice can produce right now
+         */
+        private int getAvailableFrames() {
+            if (stream.getSampleRate() == 0) return 0;
+            return (int) ((buffered + stream.getAvailableFrames() - position) / step());
+        }
+
+        /**
+         * Resamples up to {@code frames} frames and adds them onto {@code out}, ramping the gains to their targets.
+         */
+        private void mixInto(float[] out, int frames) {
+            int channels = stream.getChannels();
+            if (stream.getSampleRate() == 0 || channels == 0) return;
+            if (channels != this.channels) {
+                // the page started a new stream with another layout
+                this.channels = channels;
+                reset();
+            }
+            double step = step();
+
+            // top up the frames the interpolation will need
+            int needed = Math.min((int) (position + (frames - 1) * step) + 1, buffered + stream.getAvailableFrames());
+            if ((needed + 1) * channels > input.length) input = Arrays.copyOf(input, (needed + 1) * channels * 2);
+            if (needed > buffered) {
+                if (scratch.length < (needed - buffered) * channels) scratch = new float[(needed - buffered) * channels * 2];
+                int read = stream.read(scratch, needed - buffered);
+                System.arraycopy(scratch, 0, input, (buffered + 1) * channels, read * channels);
+                buffered += read;
+            }
+
+            float leftStep = (targetLeft - left) / frames, rightStep = (targetRight - right) / frames;
+            int produced = 0;
+            while (produced < frames && (int) position < buffered) {
+                int index = (int) position;
+                float fraction = (float) (position - index);
+                int a = index * channels, b = a + channels;
+                float sampleLeft = input[a] + (input[b] - input[a]) * fraction;
+                float sampleRight = channels == 1 ? sampleLeft : input[a + 1] + (input[b + 1] - input[a + 1]) * fraction;
+                left += leftStep;
+                right += rightStep;
+                out[produced * 2] += sampleLeft * left;
+                out[produced * 2 + 1] += sampleRight * right;
+                position += step;
+                produced++;
+            }
+            if (produced < frames) {
+                left = targetLeft;
+                right = targetRight;
+            }
+
+            // keep the last consumed frame and whatever wasn't consumed
+            int consumed = Math.min((int) position, buffered);
+            System.arraycopy(input, consumed * channels, input, 0, (buffered - consumed + 1) * channels);
+            buffered -= consumed;
+            position -= consumed;
+        }
+    }
+
+    /**
+     * The mix, as seen by the OpenAL output.
+     */
+    private static final class Bus implements MCEFAudioSource {
+        private final List<Voice> voices = new ArrayList<>();
+
+        @Override
+        public int getSampleRate() {
+            return SAMPLE_RATE;
+        }
+
+        @Override
+        public int getChannels() {
+            return 2;
+        }
+
+        /**
+         * The mix is as long as its shortest playing voice, so a voice which is slightly behind isn't padded with
+         * silence (which is heard as crackling). Voices whose stream ended, or which fell more than
+         * {@link #MAX_LAG_FRAMES} behind, don't hold the mix back; they are padded with silence instead.
+         */
+        @Override
+        public int getAvailableFrames() {
+            int shortest = Integer.MAX_VALUE, longest = 0;
+            for (Voice voice : voices) {
+                int frames = voice.getAvailableFrames();
+                longest = Math.max(longest, frames);
+                if (voice.stream.isActive()) shortest = Math.min(shortest, frames);
+            }
+            if (shortest == Integer.MAX_VALUE || longest - shortest > MAX_LAG_FRAMES) return longest;
+            return shortest;
+        }
+
+        @Override
+        public int read(float[] out, int frames) {
+            Arrays.fill(out, 0, frames * 2, 0);
+            for (Voice voice : voices) voice.mixInto(out, frames);
+            return frames;
+        }
+
+        @Override
+        public boolean isActive() {
+            for (Voice voice : voices)
+                if (voice.stream.isActive()) return true;
+            return false;
+        }
+    }
+}
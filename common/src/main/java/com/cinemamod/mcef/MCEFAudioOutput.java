@@ -0,0 +1,228 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.sounds.SoundSource;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ShortBuffer;
+
+import static org.lwjgl.openal.AL10.*;
+
+/**
+ * Plays an {@link MCEFAudioSource} through a streaming OpenAL source, on the OpenAL context of the game's sound engine.
+ * A few short buffers are kept queued on the source and refilled once per frame, from the render thread.
+ */
+public class MCEFAudioOutput {
+    private static final int BUFFER_COUNT = 4;
+    /**
+     * How much audio a single OpenAL buffer holds; with {@link #BUFFER_COUNT} this bounds the output latency.
+     */
+    private static final int BUFFER_MILLIS = 20;
+    /**
+     * How many buffers are queued before playback (re)starts, so an underrun doesn't turn into stutter.
+     */
+    private static final int PREBUFFER_COUNT = 2;
+
+    private final MCEFAudioSource source;
+    private float volume = 1;
+
+    private int sourceID = 0;
+    private int sampleRate = 0;
+    private int channels = 0;
+    private final int[] buffers = new int[BUFFER_COUNT];
+    private final int[] freeBuffers = new int[BUFFER_COUNT];
+    private int freeCount = 0;
+    private int queuedFrames = 0;
+    private final int[] bufferFrames = new int[BUFFER_COUNT];
+    private float[] samples = new float[0];
+    private ShortBuffer pcm;
+    private boolean started = false;
+
+    private long underruns = 0;
+    private long playedFrames = 0;
+    private int latencyMillis = 0;
+
+    public MCEFAudioOutput(MCEFAudioSource source) {
+        this.source = source;
+    }
+
+    public MCEFAudioSource getSource() {
+        return source;
+    }
+
+    public float getVolume() {
+        return volume;
+    }
+
+    /**
+     * @param volume the gain of the output, on top of the game's master volume
+     */
+    public void setVolume(float volume) {
+        this.volume = volume;
+    }
+
+    private void initialize(int sampleRate, int channels) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        sourceID = alGenSources();
+        alGenBuffers(buffers);
+        System.arraycopy(buffers, 0, freeBuffers, 0, BUFFER_COUNT);
+        freeCount = BUFFER_COUNT;
+        // not positional; the audio plays as is
+        alSourcei(sourceID, AL_SOURCE_RELATIVE, AL_TRUE);
+        alSource3f(sourceID, AL_POSITION, 0, 0, 0);
+        alSourcef(sourceID, AL_ROLLOFF_FACTOR, 0);
+    }
+
+    /**
+     * Moves the audio the source has buffered into OpenAL. Has to be called on the render thread, once per frame.
+     */
+    public void update() {
+        int sampleRate = source.getSampleRate();
+        int channels = source.getChannels();
+        if (sampleRate == 0 || channels == 0) return;
+        if (sourceID != 0 && !alIsSource(sourceID)) {
+            // the sound engine was reloaded (F3+T, or a device change) and took the source and its buffers with it
+            release(false);
+        } else if (sourceID != 0 && (sampleRate != this.sampleRate || channels != this.channels)) {
+            // the queued buffers hold audio in the old format
+            release(true);
+        }
+        if (sourceID == 0) initialize(sampleRate, channels);
+
+        // take back the buffers OpenAL is done with
+        int processed = alGetSourcei(sourceID, AL_BUFFERS_PROCESSED);
+        for (int i = 0; i < processed; i++) {
+            int buffer = alSourceUnqueueBuffers(sourceID);
+            int index = indexOf(buffer);
+            queuedFrames -= bufferFrames[index];
+            playedFrames += bufferFrames[index];
+            freeBuffers[freeCount++] = buffer;
+        }
+
+        int framesPerBuffer = sampleRate * BUFFER_MILLIS / 1000;
+        int format = channels == 2 ? AL_FORMAT_STEREO16 : AL_FORMAT_MONO16;
+        ensureCapacity(framesPerBuffer * channels);
+        while (freeCount > 0 && source.getAvailableFrames() >= framesPerBuffer) {
+            int frames = source.read(samples, framesPerBuffer);
+            pcm.clear();
+            for (int i = 0; i < frames * channels; i++) {
+                float sample = Math.max(-1, Math.min(1, samples[i]));
+                pcm.put((short) (sample * Short.MAX_VALUE));
+            }
+            pcm.flip();
+
+            int buffer = freeBuffers[--freeCount];
+            alBufferData(buffer, format, pcm, sampleRate);
+            alSourceQueueBuffers(sourceID, buffer);
+            bufferFrames[indexOf(buffer)] = frames;
+            queuedFrames += frames;
+        }
+
+        alSourcef(sourceID, AL_GAIN, volume * Minecraft.getInstance().options.getSoundSourceVolume(SoundSource.MASTER));
+
+        int queued = BUFFER_COUNT - freeCount;
+        if (alGetSourcei(sourceID, AL_SOURCE_STATE) != AL_PLAYING) {
+            // a source which ran out of buffers stops by itself; that is only an underrun if more audio was expected
+            if (started) {
+                if (source.isActive()) underruns++;
+                started = false;
+            }
+            if (queued >= PREBUFFER_COUNT) {
+                alSourcePlay(sourceID);
+                started = true;
+            }
+        }
+
+        int pendingFrames = queuedFrames - alGetSourcei(sourceID, AL_SAMPLE_OFFSET) + source.getAvailableFrames();
+        latencyMillis = (int) (Math.max(0, pendingFrames) * 1000L / sampleRate);
+    }
+
+    private int indexOf(int buffer) {
+        for (int i = 0; i < BUFFER_COUNT; i++)
+            if (buffers[i] == buffer) return i;
+        throw new IllegalStateException("Unknown OpenAL buffer " + buffer);
+    }
+
+    private void ensureCapacity(int size) {
+        if (pcm != null && samples.length >= size) return;
+        samples = new float[size];
+        if (pcm != null) MemoryUtil.memFree(pcm);
+        pcm = MemoryUtil.memAllocShort(size);
+    }
+
+    /**
+     * Forgets the source and its buffers, so the next update starts over with new ones.
+     *
+     * @param delete whether to delete the OpenAL objects; false if they are already gone with the old context
+     */
+    private void release(boolean delete) {
+        if (delete) {
+            alSourceStop(sourceID);
+            alDeleteSources(sourceID);
+            alDeleteBuffers(buffers);
+        }
+        sourceID = 0;
+        freeCount = 0;
+        queuedFrames = 0;
+        started = false;
+    }
+
+    /**
+     * Stops playback and deletes the OpenAL objects. Has to be called on the render thread.
+     */
+    public void close() {
+        if (sourceID != 0) release(alIsSource(sourceID));
+        if (pcm != null) {
+            MemoryUtil.memFree(pcm);
+            pcm = null;
+        }
+    }
+
+    /**
+     * @return whether the OpenAL source is playing, or would be if it hadn't run dry
+     */
+    public boolean isPlaying() {
+        return started;
+    }
+
+    // Stats
+
+    /**
+     * @return how many times playback ran dry while the source was playing
+     */
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public long getPlayedFrames() {
+        return playedFrames;
+    }
+
+    /**
+     * @return how long audio that is buffered right now takes to be heard, in milliseconds
+     */
+    public int getLatencyMillis() {
+        return latencyMillis;
+    }
+}
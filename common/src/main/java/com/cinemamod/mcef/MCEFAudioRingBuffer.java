@@ -0,0 +1,110 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.Pointer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free single producer, single consumer ring of interleaved float samples.
+ * CEF's audio thread writes packets into it, the render thread reads them out for playback.
+ */
+final class MCEFAudioRingBuffer {
+    private final float[] samples;
+    private final int mask;
+    private final int channels;
+    // positions in samples, only ever increasing; each is written by one side only
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+
+    /**
+     * @param frames   how many frames the ring holds at least, rounded up to a power of two
+     * @param channels the amount of interleaved channels
+     */
+    MCEFAudioRingBuffer(int frames, int channels) {
+        int capacity = Integer.highestOneBit(Math.max(1, frames * channels - 1)) << 1;
+        this.samples = new float[capacity];
+        this.mask = capacity - 1;
+        this.channels = channels;
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return how many frames can be read
+     */
+    int getAvailableFrames() {
+        return (int) (writePosition.get() - readPosition.get()) / channels;
+    }
+
+    /**
+     * Copies a packet of planar float channels (CEF's {@code const float**} layout) into the ring, interleaving them.
+     * Called by the producer only.
+     *
+     * @param channelPointers the address of the array of channel pointers
+     * @param sourceChannels  the amount of channels in the packet; extra channels are left out,
+     *                        missing ones repeat the last channel
+     * @param frames          the amount of frames in the packet
+     * @return how many frames fit, the rest of the packet is dropped
+     */
+    int write(long channelPointers, int sourceChannels, int frames) {
+        long write = writePosition.get();
+        int free = samples.length - (int) (write - readPosition.get());
+        int writable = Math.min(frames, free / channels);
+
+        for (int channel = 0; channel < channels; channel++) {
+            long pointer = MemoryUtil.memGetAddress(channelPointers + (long) Math.min(channel, sourceChannels - 1) * Pointer.POINTER_SIZE);
+            long position = write + channel;
+            for (int frame = 0; frame < writable; frame++) {
+                samples[(int) position & mask] = MemoryUtil.memGetFloat(pointer + frame * 4L);
+                position += channels;
+            }
+        }
+        // publish the samples only once they're all written
+        writePosition.lazySet(write + (long) writable * channels);
+        return writable;
+    }
+
+    /**
+     * Reads interleaved frames out of the ring. Called by the consumer only.
+     *
+     * @return how many frames were read
+     */
+    int read(float[] out, int frames) {
+        long read = readPosition.get();
+        int readable = Math.min(frames, (int) (writePosition.get() - read) / channels);
+        int count = readable * channels;
+        for (int i = 0; i < count; i++) out[i] = samples[(int) (read + i) & mask];
+        readPosition.lazySet(read + count);
+        return readable;
+    }
+
+    /**
+     * Drops everything that wasn't read yet. Called by the consumer only.
+     */
+    void clear() {
+        readPosition.lazySet(writePosition.get());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+/**
+ * Something {@link MCEFAudioOutput} can play: interleaved float samples, pulled from the render thread.
+ */
+public interface MCEFAudioSource {
+    /**
+     * @return the sample rate, or 0 if there is nothing to play yet
+     */
+    int getSampleRate();
+
+    /**
+     * @return the amount of interleaved channels, 1 or 2
+     */
+    int getChannels();
+
+    /**
+     * @return how many frames can be read right now
+     */
+    int getAvailableFrames();
+
+    /**
+     * Reads interleaved frames.
+     *
+     * @param out    the array to read into, large enough for {@code frames} frames
+     * @param frames the most frames to read
+     * @return how many frames were read
+     */
+    int read(float[] out, int frames);
+
+    /**
+     * @return whether more audio is expected; running out of audio while active counts as an underrun
+     */
+    default boolean isActive() {
+        return true;
+    }
+}
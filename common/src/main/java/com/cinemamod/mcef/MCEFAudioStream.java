@@ -0,0 +1,177 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import org.cef.browser.CefBrowser;
+import org.cef.handler.CefAudioHandler;
+import org.cef.misc.CefAudioParameters;
+import org.cef.misc.DataPointer;
+
+/**
+ * The audio of a single browser. Registered as that browser's audio handler, it copies every packet CEF captures
+ * into a lock-free ring buffer without allocating, from which an {@link MCEFAudioOutput} plays it.
+ *
+ * @see MCEFBrowser#useAudioOutput(boolean)
+ */
+public class MCEFAudioStream implements CefAudioHandler, MCEFAudioSource {
+    /**
+     * How much audio the ring buffer holds; packets which don't fit are dropped.
+     */
+    private static final float BUFFER_SECONDS = 0.5f;
+
+    private volatile MCEFAudioRingBuffer ring;
+    private volatile int sampleRate = 0;
+    private int sourceChannels = 0;
+    private volatile boolean playing = false;
+    private volatile boolean muted = false;
+
+    // producer side stats
+    private volatile long packets = 0;
+    private volatile long mutedPackets = 0;
+    private volatile long droppedFrames = 0;
+    private long firstPts = -1;
+    private long receivedFrames = 0;
+    private volatile long ptsDrift = 0;
+
+    @Override
+    public boolean getAudioParameters(CefBrowser browser, CefAudioParameters params) {
+        // capture the browser's audio instead of letting CEF play it
+        return true;
+    }
+
+    @Override
+    public void onAudioStreamStarted(CefBrowser browser, CefAudioParameters params, int channels) {
+        sourceChannels = channels;
+        int outputChannels = Math.min(channels, 2);
+        ring = new MCEFAudioRingBuffer((int) (params.sampleRate * BUFFER_SECONDS), outputChannels);
+        sampleRate = params.sampleRate;
+        firstPts = -1;
+        receivedFrames = 0;
+        playing = true;
+    }
+
+    @Override
+    public void onAudioStreamPacket(CefBrowser browser, DataPointer data, int frames, long pts) {
+        MCEFAudioRingBuffer ring = this.ring;
+        if (ring == null) return;
+        if (muted) {
+            // nobody can hear it, don't even copy it
+            mutedPackets++;
+            return;
+        }
+        int written = ring.write(data.getAddress(), sourceChannels, frames);
+        packets++;
+        if (written < frames) droppedFrames += frames - written;
+
+        // pts is in milliseconds; compare it with where the samples received so far say the stream should be
+        if (firstPts < 0) firstPts = pts;
+        ptsDrift = pts - (firstPts + receivedFrames * 1000 / sampleRate);
+        receivedFrames += frames;
+    }
+
+    @Override
+    public void onAudioStreamStopped(CefBrowser browser) {
+        playing = false;
+    }
+
+    @Override
+    public void onAudioStreamError(CefBrowser browser, String text) {
+        playing = false;
+    }
+
+    /**
+     * @return whether CEF is currently sending audio
+     */
+    @Override
+    public boolean isActive() {
+        return playing;
+    }
+
+    public boolean isMuted() {
+        return muted;
+    }
+
+    /**
+     * @param muted whether packets should be dropped as soon as they arrive, see {@link MCEFAudioMixer}
+     */
+    public void setMuted(boolean muted) {
+        this.muted = muted;
+    }
+
+    /**
+     * Drops the audio which wasn't read yet. Has to be called from the thread which reads the stream.
+     */
+    public void clear() {
+        MCEFAudioRingBuffer ring = this.ring;
+        if (ring != null) ring.clear();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return ring == null ? 0 : sampleRate;
+    }
+
+    @Override
+    public int getChannels() {
+        MCEFAudioRingBuffer ring = this.ring;
+        return ring == null ? 0 : ring.getChannels();
+    }
+
+    @Override
+    public int getAvailableFrames() {
+        MCEFAudioRingBuffer ring = this.ring;
+        return ring == null ? 0 : ring.getAvailableFrames();
+    }
+
+    @Override
+    public int read(float[] out, int frames) {
+        MCEFAudioRingBuffer ring = this.ring;
+        return ring == null ? 0 : ring.read(out, frames);
+    }
+
+    // Stats
+
+    public long getPackets() {
+        return packets;
+    }
+
+    /**
+     * @return how many packets were dropped right away because the stream was muted
+     */
+    public long getMutedPackets() {
+        return mutedPackets;
+    }
+
+    /**
+     * @return how many frames were dropped because the ring buffer was full, i.e. nothing was playing them
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return how far the last packet's timestamp was from the timestamp its position in the stream implies,
+     * in milliseconds; it grows when CEF skips audio
+     */
+    public long getPtsDrift() {
+        return ptsDrift;
+    }
+}
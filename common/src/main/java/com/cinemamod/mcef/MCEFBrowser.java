@@ -21,25 +21,24 @@
 package com.cinemamod.mcef;
 
 import com.cinemamod.mcef.listeners.MCEFCursorChangeListener;
-import com.mojang.blaze3d.platform.GlStateManager;
 import com.mojang.blaze3d.systems.RenderSystem;
 import net.minecraft.client.Minecraft;
+import net.minecraft.world.phys.Vec3;
 import org.cef.browser.CefBrowser;
 import org.cef.browser.CefBrowserOsr;
 import org.cef.callback.CefDragData;
+import org.cef.handler.CefScreenInfo;
 import org.cef.event.CefKeyEvent;
 import org.cef.event.CefMouseEvent;
-import org.cef.event.CefMouseWheelEvent;
 import org.cef.misc.CefCursorType;
 import org.lwjgl.glfw.GLFW;
-import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.system.libc.LibCString;
 
 import java.awt.*;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.lwjgl.glfw.GLFW.*;
-import static org.lwjgl.opengl.GL11.*;
 
 /**
  * An instance of an "Off-screen rendered" Chromium web browser.
@@ -47,6 +46,19 @@ import static org.lwjgl.opengl.GL11.*;
  * browser control shortcuts, cursor handling, drag & drop support.
  */
 public class MCEFBrowser extends CefBrowserOsr {
+    /**
+     * The windowless frame rate of a hibernating browser.
+     */
+    public static final int HIBERNATED_FRAME_RATE = 1;
+    /**
+     * The lowest resolution scale a size hint can drop a browser to.
+     */
+    public static final float MIN_LOD_SCALE = 0.25f;
+
+    /**
+     * The client the browser was created with.
+     */
+    private final MCEFClient client;
     /**
      * The renderer for the browser.
      */
@@ -67,29 +79,96 @@ public class MCEFBrowser extends CefBrowserOsr {
      * E.g. CTRL+R for reload, CTRL+Left for back, CTRL+Right for forward, etc...
      */
     private boolean browserControls = true;
-    /**
-     * Used to track when a full repaint should occur.
-     */
-    private int lastWidth = 0, lastHeight = 0;
     /**
      * A bitset representing what mouse buttons are currently pressed.
      * CEF is a bit odd and implements mouse buttons as a part of modifier flags.
      */
     private int btnMask = 0;
+    /**
+     * Whether the browser has input focus, used to prioritize its uploads.
+     */
+    private boolean focused = false;
+    /**
+     * How many frames the texture may go undrawn before the browser is hibernated, 0 to never hibernate.
+     */
+    private int hibernateAfterFrames = MCEF.getSettings().getHibernateAfterFrames();
+    private boolean hibernating = false;
+    private final long createdFrame;
+    private long hibernations = 0;
+    /**
+     * The windowless frame rate to use while awake, CEF defaults to 30.
+     */
+    private int frameRate = 30;
+    /**
+     * Picks {@link #resolutionScale} when dynamic resolution is enabled.
+     */
+    private final MCEFResolutionController resolutionController = new MCEFResolutionController();
+    /**
+     * The device scale factor CEF renders at; the view keeps its size, only the amount of pixels painted changes.
+     */
+    private volatile float resolutionScale = 1;
+    /**
+     * Time spent in {@link #onPaint}, which may run off the render thread.
+     */
+    private final AtomicLong paintNanos = new AtomicLong();
+    /**
+     * The resolution scale the size hint asks for, it caps {@link #resolutionScale}.
+     */
+    private float lodScale = 1;
+    /**
+     * Whether mouse moves and wheel events are queued and sent once per frame, see {@link #useInputCoalescing(boolean)}.
+     */
+    private boolean inputCoalescing = false;
+    private boolean moveQueued = false;
+    private int queuedMouseX, queuedMouseY;
+    private boolean wheelQueued = false;
+    private int queuedWheelX, queuedWheelY, queuedWheelModifiers;
+    private double queuedWheelAmount;
+    private long coalescedEvents = 0;
+    /**
+     * Spreads wheel events over several frames when smooth scrolling is enabled.
+     */
+    private final MCEFSmoothScroller smoothScroller = new MCEFSmoothScroller();
+    /**
+     * With whole wheel units, the fractions of smooth scrolling and precise devices are carried over
+     * to the next wheel event instead of being sent, see {@link #useWholeWheelUnits(boolean)}.
+     */
+    private boolean wholeWheelUnits = false;
+    private double wheelRemainder = 0;
+    private int wheelRemainderModifiers = 0;
+    // Input events are reused where the java-cef build allows it, instead of allocating one per event
+    private final MCEFInputEvents inputEvents = new MCEFInputEvents();
+    private final Point dragPoint = new Point();
+    /**
+     * Keeps the console messages of the page, optionally deduplicated and rate limited.
+     */
+    private final MCEFConsole console = new MCEFConsole(this);
+    /**
+     * Captures the audio of the page and plays it through OpenAL, see {@link #useAudioOutput(boolean)}.
+     */
+    private MCEFAudioStream audioStream;
+    private MCEFAudioOutput audioOutput;
+    /**
+     * Where the audio comes from in the world, null to play it as is, see {@link #setAudioPosition(double, double, double)}.
+     */
+    private volatile Vec3 audioPosition;
+    private volatile float audioRange = 32;
 
-    // Data relating to popups and graphics
+    // Data relating to popups
     // Marked as protected in-case a mod wants to extend MCEFBrowser and override the repaint logic
-    protected ByteBuffer popupGraphics;
+    // The popup itself is drawn into the view texture by the renderer, or kept apart, see useSeparatePopupLayer
     protected Rectangle popupSize;
     protected boolean showPopup = false;
-    protected boolean popupDrawn = false;
 
     public MCEFBrowser(MCEFClient client, String url, boolean transparent) {
         super(client.getHandle(), url, transparent, null);
+        this.client = client;
         renderer = new MCEFRenderer(transparent);
         cursorChangeListener = (cefCursorID) -> setCursor(CefCursorType.fromId(cefCursorID));
 
         Minecraft.getInstance().submit(renderer::initialize);
+        createdFrame = MCEFBrowserTicker.getFrame();
+        MCEFBrowserTicker.register(this);
     }
 
     public MCEFRenderer getRenderer() {
@@ -124,21 +203,250 @@ public class MCEFBrowser extends CefBrowserOsr {
         return dragContext;
     }
 
+    public MCEFConsole getConsole() {
+        return console;
+    }
+
+    @Override
+    public void setFocus(boolean enable) {
+        focused = enable;
+        super.setFocus(enable);
+    }
+
+    public boolean isFocused() {
+        return focused;
+    }
+
+    // Hibernation
+    public int getHibernateAfterFrames() {
+        return hibernateAfterFrames;
+    }
+
+    /**
+     * A browser whose texture wasn't drawn for this many frames (e.g. the screen showing it was closed,
+     * or an in-world display went out of view) is hibernated: CEF is told the browser is hidden and its frame rate
+     * is lowered to {@link #HIBERNATED_FRAME_RATE}, which saves work in the renderer process and texture uploads.
+     * It wakes up as soon as its texture is drawn again. A focused browser, or one playing audio, is never hibernated.
+     * <p>
+     * The texture counts as drawn whenever {@link MCEFRenderer#getTextureID()} or {@link MCEFRenderer#markDrawn()}
+     * is called. Defaults to {@link MCEFSettings#getHibernateAfterFrames()}, which is off unless configured.
+     *
+     * @param hibernateAfterFrames the amount of undrawn frames before hibernating, or 0 to never hibernate
+     * @return the browser instance
+     */
+    public MCEFBrowser setHibernateAfterFrames(int hibernateAfterFrames) {
+        this.hibernateAfterFrames = hibernateAfterFrames;
+        return this;
+    }
+
+    public boolean isHibernating() {
+        return hibernating;
+    }
+
+    /**
+     * @return how many times the browser was hibernated
+     */
+    public long getHibernations() {
+        return hibernations;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * Sets the maximum rate at which CEF paints this browser, while it is not hibernating.
+     *
+     * @param frameRate the frame rate, between 1 and 60
+     */
+    public void setFrameRate(int frameRate) {
+        this.frameRate = frameRate;
+        if (!hibernating) setWindowlessFrameRate(frameRate);
+    }
+
+    /**
+     * Called by the {@link MCEFBrowserTicker} once per frame.
+     */
+    void updateHibernation(long frame) {
+        // a page playing audio is still in use, even when nobody looks at it
+        boolean audible = audioStream != null && audioStream.isActive();
+        boolean stale = hibernateAfterFrames > 0 && !focused && !audible &&
+                frame - Math.max(renderer.getLastDrawnFrame(), createdFrame) > hibernateAfterFrames;
+        if (stale == hibernating) return;
+
+        hibernating = stale;
+        if (stale) {
+            hibernations++;
+            setWindowlessFrameRate(HIBERNATED_FRAME_RATE);
+            wasHidden(true);
+        } else {
+            wasHidden(false);
+            setWindowlessFrameRate(frameRate);
+        }
+    }
+
+    // Dynamic resolution
+    public MCEFResolutionController getResolutionController() {
+        return resolutionController;
+    }
+
+    /**
+     * Dynamic resolution lowers the resolution the browser renders at when the game's frame time goes over
+     * budget and the browser's paints and uploads are a meaningful part of it, and raises it again once there
+     * is headroom. The browser keeps its size, so the drawn quad and mouse coordinates are unaffected; only the
+     * texture gets smaller, which texture coordinates 0 to 1 (or {@link MCEFRenderer#getU0()} to
+     * {@link MCEFRenderer#getV1()} with bucketed storage) still cover.
+     *
+     * @param dynamicResolution whether dynamic resolution should be enabled
+     * @return the browser instance
+     */
+    public MCEFBrowser useDynamicResolution(boolean dynamicResolution) {
+        resolutionController.setEnabled(dynamicResolution);
+        return this;
+    }
+
+    /**
+     * @return the scale the browser currently renders at, relative to its size
+     */
+    public float getResolutionScale() {
+        return resolutionScale;
+    }
+
+    /**
+     * Called by the {@link MCEFBrowserTicker} once per frame.
+     */
+    void updateResolution(long frameTimeNanos) {
+        long cost = paintNanos.getAndSet(0) + renderer.takeUploadNanos();
+        float scale = Math.min(resolutionController.update(frameTimeNanos, cost), lodScale);
+        if (scale != resolutionScale) {
+            resolutionScale = scale;
+            notifyScreenInfoChanged();
+            // makes CEF repaint the whole view at the new scale
+            wasResized(browser_rect_.width, browser_rect_.height);
+        }
+    }
+
+    // Level of detail
+    /**
+     * Gives the view a mip chain, so it can be drawn small (e.g. on a far away in-world display) without
+     * shimmering. Only the dirty regions of each paint are downsampled into the lower levels.
+     *
+     * @param maxLevels the maximum amount of mip levels including the full resolution one, 1 to disable mipmaps
+     * @return the browser instance
+     * @see MCEFRenderer#setMipmapLevels(int)
+     */
+    public MCEFBrowser useMipmaps(int maxLevels) {
+        renderer.setMipmapLevels(maxLevels);
+        // the mip chain is allocated with the next full upload
+        wasResized(browser_rect_.width, browser_rect_.height);
+        return this;
+    }
+
+    /**
+     * Puts the view of this browser into a shared atlas texture, so that many small browsers can be drawn with
+     * one texture bind and draw call. Must be called on the render thread.
+     *
+     * @param atlas the atlas to use, or null to give the browser a texture of its own again
+     * @return the browser instance
+     * @see MCEFTextureAtlas
+     */
+    public MCEFBrowser useAtlas(MCEFTextureAtlas atlas) {
+        renderer.setAtlas(atlas);
+        // the view is moved with the next full upload
+        wasResized(browser_rect_.width, browser_rect_.height);
+        return this;
+    }
+
+    /**
+     * Tells the browser how large it currently appears on screen, so it can render at a lower resolution when
+     * most of its pixels would never be seen. The resolution is halved for as long as that still leaves more
+     * pixels than the projected size, down to {@link #MIN_LOD_SCALE}, and goes back up once the projected size
+     * outgrows it. This caps dynamic resolution, it doesn't replace it. Should be called every frame the browser
+     * is drawn in the world; the last hint stays in effect until {@link #clearSizeHint()}.
+     *
+     * @param projectedWidth  the width the browser is drawn at, in screen pixels
+     * @param projectedHeight the height the browser is drawn at, in screen pixels
+     */
+    public void setSizeHint(double projectedWidth, double projectedHeight) {
+        if (browser_rect_.width <= 0 || browser_rect_.height <= 0) return;
+        double ratio = Math.max(projectedWidth / browser_rect_.width, projectedHeight / browser_rect_.height);
+        float scale = lodScale;
+        // only step up once the texture has fewer pixels than the screen, and only step down with some margin,
+        // so hints which hover around a step don't make CEF repaint back and forth
+        while (scale < 1 && ratio > scale) scale *= 2;
+        while (scale > MIN_LOD_SCALE && ratio * 1.25 <= scale / 2) scale /= 2;
+        lodScale = scale;
+    }
+
+    /**
+     * Like {@link #setSizeHint(double, double)}, but projects the size from the distance to a surface in the world,
+     * using the game's field of view and window height.
+     *
+     * @param distance    the distance from the camera to the surface the browser is drawn on
+     * @param worldWidth  the width of the surface, in blocks
+     * @param worldHeight the height of the surface, in blocks
+     */
+    public void setDistanceHint(double distance, double worldWidth, double worldHeight) {
+        Minecraft minecraft = Minecraft.getInstance();
+        double fov = Math.toRadians(minecraft.options.fov().get());
+        // how many screen pixels one block covers at that distance
+        double pixelsPerBlock = minecraft.getWindow().getHeight() / (2 * Math.max(distance, 0.05) * Math.tan(fov / 2));
+        setSizeHint(worldWidth * pixelsPerBlock, worldHeight * pixelsPerBlock);
+    }
+
+    /**
+     * Removes the size hint, so the browser renders at full resolution again (or whatever dynamic resolution picks).
+     */
+    public void clearSizeHint() {
+        lodScale = 1;
+    }
+
+    /**
+     * @return the resolution scale the size hint allows
+     */
+    public float getLodScale() {
+        return lodScale;
+    }
+
+    @Override
+    public boolean getScreenInfo(CefBrowser browser, CefScreenInfo screenInfo) {
+        screenInfo.Set(resolutionScale, 32, 8, false, browser_rect_.getBounds(), browser_rect_.getBounds());
+        return true;
+    }
+
     // Popups
+    public boolean usingSeparatePopupLayer() {
+        return renderer.isUsingSeparatePopupLayer();
+    }
+
+    /**
+     * By default, popups (e.g. an open {@code <select>} dropdown or autocomplete suggestions) are drawn into the
+     * view texture, so drawing {@link MCEFRenderer#getTextureID()} shows them. With a separate popup layer, the popup
+     * is left out of the view texture and has to be drawn on top of it by the caller: whenever
+     * {@link MCEFRenderer#isPopupVisible()} is true, draw {@link MCEFRenderer#getPopupTextureID()} over the view
+     * at {@link MCEFRenderer#getPopupRect()}, see {@link com.cinemamod.mcef.example.ExampleScreen}.
+     * This saves the blits into the view texture while a popup is open. Must be called on the render thread.
+     *
+     * @param separatePopupLayer whether popups should be left out of the view texture
+     * @return the browser instance
+     */
+    public MCEFBrowser useSeparatePopupLayer(boolean separatePopupLayer) {
+        renderer.setSeparatePopupLayer(separatePopupLayer);
+        return this;
+    }
+
     @Override
     public void onPopupShow(CefBrowser browser, boolean show) {
         super.onPopupShow(browser, show);
         showPopup = show;
-        if (!show) popupDrawn = false;
+        renderer.onPopupShow(show);
     }
 
     @Override
     public void onPopupSize(CefBrowser browser, Rectangle size) {
         super.onPopupSize(browser, size);
         popupSize = size;
-        this.popupGraphics = ByteBuffer.allocateDirect(
-                size.width * size.height * 4
-        );
+        renderer.onPopupSize(size);
     }
 
     // Graphics
@@ -148,76 +456,16 @@ public class MCEFBrowser extends CefBrowserOsr {
         if (dirtyRects.length == 0)
             return;
 
-        if (!popup) {
-            if (lastWidth != width || lastHeight != height) {
-                lastWidth = width;
-                lastHeight = height;
-                // upload full texture
-                // this also sets up the texture size and creates the texture
-                renderer.onPaint(buffer, width, height);
-            } else {
-                if (renderer.getTextureID() == 0) return;
-                RenderSystem.bindTexture(renderer.getTextureID());
-                RenderSystem.pixelStore(GL_UNPACK_ROW_LENGTH, width);
-                for (Rectangle dirtyRect : dirtyRects) {
-                    GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, dirtyRect.x);
-                    GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, dirtyRect.y);
-                    renderer.onPaint(buffer, dirtyRect.x, dirtyRect.y, dirtyRect.width, dirtyRect.height);
-                }
-                if ((popupDrawn || showPopup) && popupSize != null) {
-                    // interpret where the popup was as a dirty rect
-                    if (!showPopup) {
-                        // if the popup is not visible, just draw the contents of the buffer
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, popupSize.width);
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, popupSize.height);
-                        renderer.onPaint(buffer, popupSize.x, popupSize.y, popupSize.width, popupSize.height);
-                        popupGraphics = null;
-                        popupSize = null;
-                    } else if (popupDrawn) {
-                        // else, a use copy of the popup graphics, as it needs to remain visible
-                        // and for some reason that I do not for the life of me understand, chromium does not seem to keep this data in memory outside of the paint loop, meaning it has to be copied around, which wastes performance
-                        RenderSystem.pixelStore(GL_UNPACK_ROW_LENGTH, popupSize.width);
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, 0);
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, 0);
-                        renderer.onPaint(popupGraphics, popupSize.x, popupSize.y, popupSize.width, popupSize.height);
-                    }
-                }
-            }
-        } else {
-            if (renderer.getTextureID() == 0) return;
-            RenderSystem.bindTexture(renderer.getTextureID());
-            int start = buffer.capacity();
-            int end = 0;
-            for (Rectangle dirtyRect : dirtyRects) {
-                RenderSystem.pixelStore(GL_UNPACK_ROW_LENGTH, popupSize.width);
-                GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, dirtyRect.x);
-                GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, dirtyRect.y);
-                renderer.onPaint(buffer, popupSize.x + dirtyRect.x, popupSize.y + dirtyRect.y, dirtyRect.width, dirtyRect.height);
-
-                int rectStart = (dirtyRect.x + ((dirtyRect.y) * popupSize.width)) << 2;
-                if (rectStart < start) start = rectStart;
-
-                int rectEnd = ((dirtyRect.x + dirtyRect.width) + ((dirtyRect.y + popupSize.height) * dirtyRect.width)) << 2;
-                if (rectEnd > end) end = rectEnd;
-            }
-            if (start < 0) start = 0;
-            if (end > buffer.capacity()) end = buffer.capacity();
-
-            if (end > start) {
-                // TODO: check if it's more performant to go for row-wise copies or if it's better to just copy the updated region
-                if (this.popupGraphics != null) {
-                    long addrFrom = MemoryUtil.memAddress(buffer);
-                    long addrTo = MemoryUtil.memAddress(popupGraphics);
-                    MemoryUtil.memCopy(
-                            addrFrom + start,
-                            addrTo + start,
-                            (end - start)
-                    );
-                }
-            }
-
-            popupDrawn = true;
+        long start = System.nanoTime();
+        if (popup) {
+            // popups have a texture of their own, the renderer blits it into the view unless it's a separate layer
+            renderer.onPopupPaint(buffer, dirtyRects, width, height);
+        } else if (!renderer.queuePaint(buffer, dirtyRects, width, height)) {
+            // without a mailbox, the paint is uploaded right away
+            // this does a full upload instead when the size changed
+            renderer.onPaint(buffer, width, height, dirtyRects);
         }
+        paintNanos.addAndGet(System.nanoTime() - start);
     }
 
     public void resize(int width, int height) {
@@ -225,8 +473,174 @@ public class MCEFBrowser extends CefBrowserOsr {
         wasResized(width, height);
     }
 
+    // Input coalescing
+    public boolean usingInputCoalescing() {
+        return inputCoalescing;
+    }
+
+    /**
+     * With input coalescing, mouse moves and wheel events are queued instead of being sent to CEF right away.
+     * Consecutive moves only keep the latest position and consecutive wheel events add up, and the queue is sent
+     * once per frame, or before the next button or key event so the order of events is kept. High polling rate mice
+     * otherwise cause hundreds of events (and drag-over updates) per frame.
+     *
+     * @param inputCoalescing whether input coalescing should be enabled
+     * @return the browser instance
+     */
+    public MCEFBrowser useInputCoalescing(boolean inputCoalescing) {
+        if (!inputCoalescing) flushInput();
+        this.inputCoalescing = inputCoalescing;
+        return this;
+    }
+
+    /**
+     * @return how many mouse move and wheel events were merged into another, and so never sent to CEF
+     */
+    public long getCoalescedEvents() {
+        return coalescedEvents;
+    }
+
+    /**
+     * Sends the queued mouse move and wheel events, if any. Called by the {@link MCEFBrowserTicker} once per frame.
+     */
+    public void flushInput() {
+        if (moveQueued) {
+            moveQueued = false;
+            dispatchMouseMove(queuedMouseX, queuedMouseY);
+        }
+        if (wheelQueued) {
+            wheelQueued = false;
+            dispatchMouseWheel(queuedWheelX, queuedWheelY, queuedWheelAmount, queuedWheelModifiers);
+        }
+    }
+
+    // Smooth scrolling
+    public MCEFSmoothScroller getSmoothScroller() {
+        return smoothScroller;
+    }
+
+    /**
+     * With smooth scrolling, a wheel event isn't scrolled all at once; each frame scrolls a part of what is left,
+     * easing out towards the target. This replaces the large jumps of a wheel notch with many small steps,
+     * which also keeps the part of the page CEF has to repaint each frame small.
+     *
+     * @param smoothScrolling whether smooth scrolling should be enabled
+     * @return the browser instance
+     */
+    public MCEFBrowser useSmoothScrolling(boolean smoothScrolling) {
+        if (!smoothScrolling) finishScrolling();
+        smoothScroller.setEnabled(smoothScrolling);
+        return this;
+    }
+
+    /**
+     * For java-cef builds which cut fractional wheel amounts off, wheel events can be sent in whole units instead;
+     * what is left over is added to the next wheel event in the same direction, so no scrolling is lost.
+     * Off by default, fractional amounts (of macOS trackpads and smooth scrolling) are sent as they are.
+     *
+     * @param wholeWheelUnits whether wheel events should only scroll whole units
+     * @return the browser instance
+     */
+    public MCEFBrowser useWholeWheelUnits(boolean wholeWheelUnits) {
+        this.wholeWheelUnits = wholeWheelUnits;
+        wheelRemainder = 0;
+        return this;
+    }
+
+    /**
+     * Called by the {@link MCEFBrowserTicker} once per frame.
+     */
+    void updateScrolling(long frameTimeNanos) {
+        double amount = smoothScroller.step(frameTimeNanos);
+        if (amount != 0)
+            dispatchMouseWheel(smoothScroller.getMouseX(), smoothScroller.getMouseY(), amount, smoothScroller.getModifiers());
+    }
+
+    private void finishScrolling() {
+        double amount = smoothScroller.finish();
+        if (amount != 0)
+            dispatchMouseWheel(smoothScroller.getMouseX(), smoothScroller.getMouseY(), amount, smoothScroller.getModifiers());
+    }
+
+    // Audio
+    public MCEFAudioStream getAudioStream() {
+        return audioStream;
+    }
+
+    public MCEFAudioOutput getAudioOutput() {
+        return audioOutput;
+    }
+
+    /**
+     * Enabling audio output makes CEF hand the page's audio to MCEF, which plays it through the game's sound engine,
+     * following the game's master volume. Without it, CEF plays the audio itself.
+     * Takes effect with the next audio stream the page starts.
+     *
+     * @param audioOutput whether the audio should be played through the game
+     * @return the browser instance
+     */
+    public MCEFBrowser useAudioOutput(boolean audioOutput) {
+        if (audioOutput == (this.audioStream != null)) return this;
+        if (audioOutput) {
+            audioStream = new MCEFAudioStream();
+            this.audioOutput = new MCEFAudioOutput(audioStream);
+            client.addAudioHandler(this, audioStream);
+        } else {
+            client.removeAudioHandler(this, audioStream);
+            MCEFRenderQueue.execute(this.audioOutput::close);
+            audioStream = null;
+            this.audioOutput = null;
+        }
+        return this;
+    }
+
+    public Vec3 getAudioPosition() {
+        return audioPosition;
+    }
+
+    /**
+     * Places the browser's audio in the world. Instead of its own OpenAL source, the audio is then mixed with the
+     * other placed browsers by the {@link MCEFAudioMixer}, attenuated by the distance to the camera
+     * and muted entirely beyond the {@link #getAudioRange() hearing range}. The volume of the browser's
+     * {@link #getAudioOutput() audio output} still applies.
+     * Only has an effect with {@link #useAudioOutput(boolean) audio output} enabled.
+     */
+    public void setAudioPosition(double x, double y, double z) {
+        audioPosition = new Vec3(x, y, z);
+    }
+
+    /**
+     * Plays the browser's audio as is again, through its own OpenAL source.
+     */
+    public void clearAudioPosition() {
+        audioPosition = null;
+    }
+
+    public float getAudioRange() {
+        return audioRange;
+    }
+
+    /**
+     * @param audioRange how many blocks away from its {@link #setAudioPosition(double, double, double) position}
+     *                   the browser can be heard, it fades out linearly up to there
+     */
+    public void setAudioRange(float audioRange) {
+        this.audioRange = audioRange;
+    }
+
+    /**
+     * Called by the {@link MCEFBrowserTicker} once per frame.
+     */
+    void updateAudio() {
+        if (audioOutput == null) return;
+        // placed browsers are played by the mixer; closing an output which holds nothing is free
+        if (audioPosition == null) audioOutput.update();
+        else audioOutput.close();
+    }
+
     // Inputs
     public void sendKeyPress(int keyCode, long scanCode, int modifiers) {
+        flushInput();
         if (browserControls) {
             if (modifiers == GLFW_MOD_CONTROL) {
                 if (keyCode == GLFW_KEY_R) {
@@ -253,12 +667,11 @@ public class MCEFBrowser extends CefBrowserOsr {
             }
         }
 
-        CefKeyEvent e = new CefKeyEvent(CefKeyEvent.KEY_PRESS, keyCode, (char) keyCode, modifiers);
-        e.scancode = scanCode;
-        sendKeyEvent(e);
+        sendKeyEvent(inputEvents.key(CefKeyEvent.KEY_PRESS, keyCode, (char) keyCode, modifiers, scanCode));
     }
 
     public void sendKeyRelease(int keyCode, long scanCode, int modifiers) {
+        flushInput();
         if (browserControls) {
             if (modifiers == GLFW_MOD_CONTROL) {
                 if (keyCode == GLFW_KEY_R) return;
@@ -271,12 +684,11 @@ public class MCEFBrowser extends CefBrowserOsr {
             }
         }
 
-        CefKeyEvent e = new CefKeyEvent(CefKeyEvent.KEY_RELEASE, keyCode, (char) keyCode, modifiers);
-        e.scancode = scanCode;
-        sendKeyEvent(e);
+        sendKeyEvent(inputEvents.key(CefKeyEvent.KEY_RELEASE, keyCode, (char) keyCode, modifiers, scanCode));
     }
 
     public void sendKeyTyped(char c, int modifiers) {
+        flushInput();
         if (browserControls) {
             if (modifiers == GLFW_MOD_CONTROL) {
                 if ((int) c == GLFW_KEY_R) return;
@@ -289,20 +701,34 @@ public class MCEFBrowser extends CefBrowserOsr {
             }
         }
 
-        CefKeyEvent e = new CefKeyEvent(CefKeyEvent.KEY_TYPE, c, c, modifiers);
-        sendKeyEvent(e);
+        sendKeyEvent(inputEvents.key(CefKeyEvent.KEY_TYPE, c, c, modifiers, 0));
     }
 
     public void sendMouseMove(int mouseX, int mouseY) {
-        CefMouseEvent e = new CefMouseEvent(CefMouseEvent.MOUSE_MOVED, mouseX, mouseY, 0, 0, dragContext.getVirtualModifiers(btnMask));
-        sendMouseEvent(e);
+        if (inputCoalescing) {
+            // a queued wheel event happened before this move, it has to go first
+            if (wheelQueued) flushInput();
+            if (moveQueued) coalescedEvents++;
+            moveQueued = true;
+            queuedMouseX = mouseX;
+            queuedMouseY = mouseY;
+            return;
+        }
+        dispatchMouseMove(mouseX, mouseY);
+    }
+
+    private void dispatchMouseMove(int mouseX, int mouseY) {
+        sendMouseEvent(inputEvents.mouse(CefMouseEvent.MOUSE_MOVED, mouseX, mouseY, 0, 0, dragContext.getVirtualModifiers(btnMask)));
 
-        if (dragContext.isDragging())
-            this.dragTargetDragOver(new Point(mouseX, mouseY), 0, dragContext.getMask());
+        if (dragContext.isDragging()) {
+            dragPoint.setLocation(mouseX, mouseY);
+            this.dragTargetDragOver(dragPoint, 0, dragContext.getMask());
+        }
     }
 
     // TODO: it may be necessary to add modifiers here
     public void sendMousePress(int mouseX, int mouseY, int button) {
+        flushInput();
         // for some reason, middle and right are swapped in MC
         if (button == 1) button = 2;
         else if (button == 2) button = 1;
@@ -311,12 +737,12 @@ public class MCEFBrowser extends CefBrowserOsr {
         else if (button == 1) btnMask |= CefMouseEvent.BUTTON2_MASK;
         else if (button == 2) btnMask |= CefMouseEvent.BUTTON3_MASK;
 
-        CefMouseEvent e = new CefMouseEvent(GLFW_PRESS, mouseX, mouseY, 1, button, btnMask);
-        sendMouseEvent(e);
+        sendMouseEvent(inputEvents.mouse(GLFW_PRESS, mouseX, mouseY, 1, button, btnMask));
     }
 
     // TODO: it may be necessary to add modifiers here
     public void sendMouseRelease(int mouseX, int mouseY, int button) {
+        flushInput();
         // For some reason, middle and right are swapped in MC
         if (button == 1) button = 2;
         else if (button == 2) button = 1;
@@ -325,8 +751,7 @@ public class MCEFBrowser extends CefBrowserOsr {
         else if (button == 1 && (btnMask & CefMouseEvent.BUTTON2_MASK) != 0) btnMask ^= CefMouseEvent.BUTTON2_MASK;
         else if (button == 2 && (btnMask & CefMouseEvent.BUTTON3_MASK) != 0) btnMask ^= CefMouseEvent.BUTTON3_MASK;
 
-        CefMouseEvent e = new CefMouseEvent(GLFW_RELEASE, mouseX, mouseY, 1, button, btnMask);
-        sendMouseEvent(e);
+        sendMouseEvent(inputEvents.mouse(GLFW_RELEASE, mouseX, mouseY, 1, button, btnMask));
 
         // drag&drop
         if (dragContext.isDragging()) {
@@ -336,10 +761,10 @@ public class MCEFBrowser extends CefBrowserOsr {
         }
     }
 
-    // TODO: smooth scrolling
     public void sendMouseWheel(int mouseX, int mouseY, double amount, int modifiers) {
         if (browserControls) {
             if ((modifiers & GLFW_MOD_CONTROL) != 0) {
+                flushInput();
                 if (amount > 0) {
                     if (getZoomLevel() < 9) setZoomLevel(getZoomLevel() + 1);
                 } else if (getZoomLevel() > -9) setZoomLevel(getZoomLevel() - 1);
@@ -350,18 +775,63 @@ public class MCEFBrowser extends CefBrowserOsr {
         // macOS generally has a slow scroll speed that feels more natural with their magic mice / trackpads
         if (!MCEFPlatform.getPlatform().isMacOS()) {
             // This removes the feeling of "smooth scroll"
-            if (amount < 0) {
-                amount = Math.floor(amount);
-            } else {
-                amount = Math.ceil(amount);
+            // smooth scrolling keeps the fractional amounts of precise scrolling devices instead
+            if (!smoothScroller.isEnabled()) {
+                if (amount < 0) {
+                    amount = Math.floor(amount);
+                } else {
+                    amount = Math.ceil(amount);
+                }
             }
 
             // This feels about equivalent to chromium with smooth scrolling disabled -ds58
             amount = amount * 3;
         }
 
-        CefMouseWheelEvent e = new CefMouseWheelEvent(CefMouseWheelEvent.WHEEL_UNIT_SCROLL, mouseX, mouseY, amount, modifiers);
-        sendMouseWheelEvent(e);
+        if (smoothScroller.isEnabled()) {
+            if (!smoothScroller.add(mouseX, mouseY, amount, modifiers)) {
+                // the modifiers changed (e.g. shift for horizontal scrolling), the previous scroll ends right away
+                finishScrolling();
+                smoothScroller.add(mouseX, mouseY, amount, modifiers);
+            }
+            return;
+        }
+
+        if (inputCoalescing) {
+            if (wheelQueued && queuedWheelModifiers == modifiers) {
+                coalescedEvents++;
+                queuedWheelAmount += amount;
+                queuedWheelX = mouseX;
+                queuedWheelY = mouseY;
+                return;
+            }
+            if (wheelQueued) flushInput();
+            wheelQueued = true;
+            queuedWheelX = mouseX;
+            queuedWheelY = mouseY;
+            queuedWheelAmount = amount;
+            queuedWheelModifiers = modifiers;
+            return;
+        }
+        dispatchMouseWheel(mouseX, mouseY, amount, modifiers);
+    }
+
+    private void dispatchMouseWheel(int mouseX, int mouseY, double amount, int modifiers) {
+        if (!wholeWheelUnits) {
+            sendMouseWheelEvent(inputEvents.wheel(mouseX, mouseY, amount, modifiers));
+            return;
+        }
+        // a remainder of the other direction, or of a scroll with other modifiers, is dropped
+        if (modifiers != wheelRemainderModifiers || Math.signum(amount) != Math.signum(wheelRemainder))
+            wheelRemainder = 0;
+        wheelRemainderModifiers = modifiers;
+        amount += wheelRemainder;
+        // truncated towards zero; the small bias keeps rounding errors from holding back a whole unit
+        long units = (long) (amount + Math.copySign(1e-6, amount));
+        wheelRemainder = amount - units;
+        if (units == 0) return;
+
+        sendMouseWheelEvent(inputEvents.wheel(mouseX, mouseY, units, modifiers));
     }
 
     // Drag & drop
@@ -403,6 +873,9 @@ public class MCEFBrowser extends CefBrowserOsr {
 
     // Closing
     public void close() {
+        MCEFBrowserTicker.unregister(this);
+        client.removeHandlers(this);
+        if (audioOutput != null) audioOutput.close();
         renderer.cleanup();
         cursorChangeListener.onCursorChange(0);
         super.close(true);
@@ -417,12 +890,18 @@ public class MCEFBrowser extends CefBrowserOsr {
     // Cursor handling
     @Override
     public boolean onCursorChange(CefBrowser browser, int cursorType) {
-        cursorType = dragContext.getVirtualCursor(cursorType);
-        cursorChangeListener.onCursorChange(cursorType);
+        int virtualCursorType = dragContext.getVirtualCursor(cursorType);
+        // the listener usually sets the GLFW cursor, which has to happen on the render thread
+        MCEFRenderQueue.execute(() -> cursorChangeListener.onCursorChange(virtualCursorType));
+        cursorType = virtualCursorType;
         return super.onCursorChange(browser, cursorType);
     }
 
     public void setCursor(CefCursorType cursorType) {
+        if (!RenderSystem.isOnRenderThread()) {
+            MCEFRenderQueue.execute(() -> setCursor(cursorType));
+            return;
+        }
         if (cursorType == CefCursorType.NONE) {
             GLFW.glfwSetInputMode(Minecraft.getInstance().getWindow().getWindow(), GLFW_CURSOR, GLFW_CURSOR_HIDDEN);
         } else {
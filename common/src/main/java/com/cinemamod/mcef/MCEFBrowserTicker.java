@@ -0,0 +1,105 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Runs the per-frame work of every {@link MCEFBrowser}, before {@link MCEFUploadScheduler} uploads their frames.
+ * <p>
+ * Coalesced input is sent from here, see {@link MCEFBrowser#useInputCoalescing(boolean)}, smooth scrolling is
+ * stepped, browser audio is played, see {@link MCEFBrowser#useAudioOutput(boolean)}, browsers which weren't drawn
+ * for a while are hibernated, see {@link MCEFBrowser#setHibernateAfterFrames(int)}, and the resolution of every
+ * browser is adjusted to the frame time.
+ */
+public final class MCEFBrowserTicker {
+    // Browsers are held weakly, so one that is never closed can still be collected and clean up after itself
+    private static final List<WeakReference<MCEFBrowser>> BROWSERS = new CopyOnWriteArrayList<>();
+    // The browsers still alive this frame, only held while the frame is ticked
+    private static final List<MCEFBrowser> LIVE = new ArrayList<>();
+
+    private static long frame = 0;
+    private static long lastFrameNanos = 0;
+    private static long frameTimeNanos = 0;
+
+    private MCEFBrowserTicker() {
+    }
+
+    static void register(MCEFBrowser browser) {
+        BROWSERS.add(new WeakReference<>(browser));
+    }
+
+    static void unregister(MCEFBrowser browser) {
+        BROWSERS.removeIf(reference -> reference.get() == null || reference.get() == browser);
+    }
+
+    /**
+     * Adds the browsers which are still alive to the list, and forgets the ones which were collected.
+     */
+    static void collectBrowsers(List<MCEFBrowser> browsers) {
+        boolean collected = false;
+        for (WeakReference<MCEFBrowser> reference : BROWSERS) {
+            MCEFBrowser browser = reference.get();
+            if (browser == null) collected = true;
+            else browsers.add(browser);
+        }
+        if (collected) BROWSERS.removeIf(reference -> reference.get() == null);
+    }
+
+    /**
+     * @return the amount of frames that were ticked, used to tell when a browser was last drawn
+     */
+    public static long getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return how long the last game frame took, measured between calls of {@link #tick()}
+     */
+    public static long getFrameTimeNanos() {
+        return frameTimeNanos;
+    }
+
+    /**
+     * This gets called by {@link com.cinemamod.mcef.mixins.CefRenderUpdateMixin} once per frame,
+     * after CEF's message loop work and before the uploads. This should not be called by anything else.
+     */
+    public static void tick() {
+        frame++;
+        long now = System.nanoTime();
+        if (lastFrameNanos != 0) frameTimeNanos = now - lastFrameNanos;
+        lastFrameNanos = now;
+
+        collectBrowsers(LIVE);
+        for (MCEFBrowser browser : LIVE) {
+            browser.flushInput();
+            browser.updateScrolling(frameTimeNanos);
+            browser.updateAudio();
+            browser.updateHibernation(frame);
+            browser.updateResolution(frameTimeNanos);
+        }
+        MCEFAudioMixer.update(LIVE);
+        LIVE.clear();
+    }
+}
@@ -34,18 +34,36 @@ import org.cef.misc.CefAudioParameters;
 import org.cef.misc.DataPointer;
 import org.cef.network.CefRequest;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A wrapper around {@link CefClient}
+ * <p>
+ * Handlers can be registered for every browser, or for a single browser, in which case they only get that browser's
+ * callbacks. Handlers for a single browser are called before the global ones, and are removed when the browser
+ * is closed. Handlers may be (un)registered from any thread.
+ * <p>
+ * With {@link #setAsyncDispatch(boolean) async dispatch}, callbacks which don't return anything are handed to a
+ * single background thread instead of running on the CEF UI thread (usually the render thread), so slow handlers
+ * can't cause frame hitches. Callbacks which return a value, and the audio callbacks whose data is only valid during
+ * the call, always stay synchronous.
  */
 public class MCEFClient implements CefLoadHandler, CefContextMenuHandler, CefDisplayHandler, CefAudioHandler {
     private final CefClient handle;
-    private final List<CefLoadHandler> loadHandlers = new ArrayList<>();
-    private final List<CefContextMenuHandler> contextMenuHandlers = new ArrayList<>();
-    private final List<CefDisplayHandler> displayHandlers = new ArrayList<>();
-    private final List<CefAudioHandler> audioHandlers = new ArrayList<>();
+    private final MCEFHandlerRegistry<CefLoadHandler> loadHandlers = new MCEFHandlerRegistry<>(new CefLoadHandler[0]);
+    private final MCEFHandlerRegistry<CefContextMenuHandler> contextMenuHandlers = new MCEFHandlerRegistry<>(new CefContextMenuHandler[0]);
+    private final MCEFHandlerRegistry<CefDisplayHandler> displayHandlers = new MCEFHandlerRegistry<>(new CefDisplayHandler[0]);
+    private final MCEFHandlerRegistry<CefAudioHandler> audioHandlers = new MCEFHandlerRegistry<>(new CefAudioHandler[0]);
+    /**
+     * How many callbacks can wait for the dispatch thread before new ones are dropped.
+     */
+    private static final int DISPATCH_QUEUE_CAPACITY = 1024;
+    private volatile ThreadPoolExecutor dispatcher;
+    private final AtomicLong dispatchedEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
 
     public MCEFClient(CefClient cefClient) {
         handle = cefClient;
@@ -53,51 +71,165 @@ public class MCEFClient implements CefLoadHandler, CefContextMenuHandler, CefDis
         cefClient.addContextMenuHandler(this);
         cefClient.addDisplayHandler(this);
         cefClient.addAudioHandler(this);
+        if (MCEF.getSettings().isUsingAsyncClientDispatch()) setAsyncDispatch(true);
     }
 
     public CefClient getHandle() {
         return handle;
     }
 
+    public boolean isAsyncDispatch() {
+        return dispatcher != null;
+    }
+
+    /**
+     * Async dispatch queues callbacks which don't return anything (load events, title and address changes and such)
+     * for a single virtual thread, in order. When the queue is full, new callbacks are dropped and counted in
+     * {@link #getDroppedEvents()}. Handlers then run off the CEF UI thread, so they must not touch GL, and the
+     * {@link CefFrame} they are given may be gone by the time they run.
+     * Defaults to {@link MCEFSettings#isUsingAsyncClientDispatch()}.
+     *
+     * @param asyncDispatch whether callbacks should be dispatched asynchronously
+     */
+    public synchronized void setAsyncDispatch(boolean asyncDispatch) {
+        if (asyncDispatch == (dispatcher != null)) return;
+        if (asyncDispatch) {
+            dispatcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(DISPATCH_QUEUE_CAPACITY),
+                    Thread.ofVirtual().name("MCEF-Dispatch").factory(),
+                    (task, executor) -> droppedEvents.incrementAndGet());
+        } else {
+            // callbacks which are already queued still run
+            dispatcher.shutdown();
+            dispatcher = null;
+        }
+    }
+
+    /**
+     * @return how many callbacks were run on the dispatch thread
+     */
+    public long getDispatchedEvents() {
+        return dispatchedEvents.get();
+    }
+
+    /**
+     * @return how many callbacks were dropped because the dispatch queue was full
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @return how many callbacks are waiting for the dispatch thread
+     */
+    public int getQueuedEvents() {
+        ThreadPoolExecutor dispatcher = this.dispatcher;
+        return dispatcher == null ? 0 : dispatcher.getQueue().size();
+    }
+
+    private void dispatch(Runnable callback) {
+        ThreadPoolExecutor dispatcher = this.dispatcher;
+        if (dispatcher == null) {
+            callback.run();
+            return;
+        }
+        dispatcher.execute(() -> {
+            try {
+                callback.run();
+            } catch (Exception e) {
+                MCEF.getLogger().error("A client handler threw an exception", e);
+            }
+            dispatchedEvents.incrementAndGet();
+        });
+    }
+
+    /**
+     * Removes every handler registered for a single browser. Called when an {@link MCEFBrowser} is closed.
+     */
+    public void removeHandlers(CefBrowser browser) {
+        loadHandlers.removeAll(browser);
+        contextMenuHandlers.removeAll(browser);
+        displayHandlers.removeAll(browser);
+        audioHandlers.removeAll(browser);
+    }
+
     public void addLoadHandler(CefLoadHandler handler) {
         loadHandlers.add(handler);
     }
 
+    public void addLoadHandler(CefBrowser browser, CefLoadHandler handler) {
+        loadHandlers.add(browser, handler);
+    }
+
+    public void removeLoadHandler(CefLoadHandler handler) {
+        loadHandlers.remove(handler);
+    }
+
+    public void removeLoadHandler(CefBrowser browser, CefLoadHandler handler) {
+        loadHandlers.remove(browser, handler);
+    }
+
     @Override
     public void onLoadingStateChange(CefBrowser browser, boolean isLoading, boolean canGoBack, boolean canGoForward) {
-        for (CefLoadHandler loadHandler : loadHandlers)
-            loadHandler.onLoadingStateChange(browser, isLoading, canGoBack, canGoForward);
+        CefLoadHandler[] handlers = loadHandlers.get(browser);
+        if (handlers.length == 0) return;
+        dispatch(() -> {
+            for (CefLoadHandler loadHandler : handlers) loadHandler.onLoadingStateChange(browser, isLoading, canGoBack, canGoForward);
+        });
     }
 
     @Override
     public void onLoadStart(CefBrowser browser, CefFrame frame, CefRequest.TransitionType transitionType) {
-        for (CefLoadHandler loadHandler : loadHandlers) loadHandler.onLoadStart(browser, frame, transitionType);
+        CefLoadHandler[] handlers = loadHandlers.get(browser);
+        if (handlers.length == 0) return;
+        dispatch(() -> {
+            for (CefLoadHandler loadHandler : handlers) loadHandler.onLoadStart(browser, frame, transitionType);
+        });
     }
 
     @Override
     public void onLoadEnd(CefBrowser browser, CefFrame frame, int httpStatusCode) {
-        for (CefLoadHandler loadHandler : loadHandlers) loadHandler.onLoadEnd(browser, frame, httpStatusCode);
+        CefLoadHandler[] handlers = loadHandlers.get(browser);
+        if (handlers.length == 0) return;
+        dispatch(() -> {
+            for (CefLoadHandler loadHandler : handlers) loadHandler.onLoadEnd(browser, frame, httpStatusCode);
+        });
     }
 
     @Override
     public void onLoadError(CefBrowser browser, CefFrame frame, ErrorCode errorCode, String errorText, String failedUrl) {
-        for (CefLoadHandler loadHandler : loadHandlers)
-            loadHandler.onLoadError(browser, frame, errorCode, errorText, failedUrl);
+        CefLoadHandler[] handlers = loadHandlers.get(browser);
+        if (handlers.length == 0) return;
+        dispatch(() -> {
+            for (CefLoadHandler loadHandler : handlers) loadHandler.onLoadError(browser, frame, errorCode, errorText, failedUrl);
+        });
     }
 
     public void addContextMenuHandler(CefContextMenuHandler handler) {
         contextMenuHandlers.add(handler);
     }
 
+    public void addContextMenuHandler(CefBrowser browser, CefContextMenuHandler handler) {
+        contextMenuHandlers.add(browser, handler);
+    }
+
+    public void removeContextMenuHandler(CefContextMenuHandler handler) {
+        contextMenuHandlers.remove(handler);
+    }
+
+    public void removeContextMenuHandler(CefBrowser browser, CefContextMenuHandler handler) {
+        contextMenuHandlers.remove(browser, handler);
+    }
+
     @Override
     public void onBeforeContextMenu(CefBrowser browser, CefFrame frame, CefContextMenuParams params, CefMenuModel model) {
-        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers)
+        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers.get(browser))
             contextMenuHandler.onBeforeContextMenu(browser, frame, params, model);
     }
 
     @Override
     public boolean onContextMenuCommand(CefBrowser browser, CefFrame frame, CefContextMenuParams params, int commandId, int eventFlags) {
-        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers)
+        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers.get(browser))
             if (contextMenuHandler.onContextMenuCommand(browser, frame, params, commandId, eventFlags))
                 return true;
         return false;
@@ -105,27 +237,50 @@ public class MCEFClient implements CefLoadHandler, CefContextMenuHandler, CefDis
 
     @Override
     public void onContextMenuDismissed(CefBrowser browser, CefFrame frame) {
-        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers)
-            contextMenuHandler.onContextMenuDismissed(browser, frame);
+        CefContextMenuHandler[] handlers = contextMenuHandlers.get(browser);
+        if (handlers.length == 0) return;
+        dispatch(() -> {
+            for (CefContextMenuHandler contextMenuHandler : handlers) contextMenuHandler.onContextMenuDismissed(browser, frame);
+        });
     }
 
     public void addDisplayHandler(CefDisplayHandler handler) {
         displayHandlers.add(handler);
     }
 
+    public void addDisplayHandler(CefBrowser browser, CefDisplayHandler handler) {
+        displayHandlers.add(browser, handler);
+    }
+
+    public void removeDisplayHandler(CefDisplayHandler handler) {
+        displayHandlers.remove(handler);
+    }
+
+    public void removeDisplayHandler(CefBrowser browser, CefDisplayHandler handler) {
+        displayHandlers.remove(browser, handler);
+    }
+
     @Override
     public void onAddressChange(CefBrowser browser, CefFrame frame, String url) {
-        for (CefDisplayHandler displayHandler : displayHandlers) displayHandler.onAddressChange(browser, frame, url);
+        CefDisplayHandler[] handlers = displayHandlers.get(browser);
+        if (handlers.length == 0) return;
+        dispatch(() -> {
+            for (CefDisplayHandler displayHandler : handlers) displayHandler.onAddressChange(browser, frame, url);
+        });
     }
 
     @Override
     public void onTitleChange(CefBrowser browser, String title) {
-        for (CefDisplayHandler displayHandler : displayHandlers) displayHandler.onTitleChange(browser, title);
+        CefDisplayHandler[] handlers = displayHandlers.get(browser);
+        if (handlers.length == 0) return;
+        dispatch(() -> {
+            for (CefDisplayHandler displayHandler : handlers) displayHandler.onTitleChange(browser, title);
+        });
     }
 
     @Override
     public boolean onTooltip(CefBrowser browser, String text) {
-        for (CefDisplayHandler displayHandler : displayHandlers)
+        for (CefDisplayHandler displayHandler : displayHandlers.get(browser))
             if (displayHandler.onTooltip(browser, text))
                 return true;
         return false;
@@ -133,20 +288,27 @@ public class MCEFClient implements CefLoadHandler, CefContextMenuHandler, CefDis
 
     @Override
     public void onStatusMessage(CefBrowser browser, String value) {
-        for (CefDisplayHandler displayHandler : displayHandlers) displayHandler.onStatusMessage(browser, value);
+        CefDisplayHandler[] handlers = displayHandlers.get(browser);
+        if (handlers.length == 0) return;
+        dispatch(() -> {
+            for (CefDisplayHandler displayHandler : handlers) displayHandler.onStatusMessage(browser, value);
+        });
     }
 
     @Override
     public boolean onConsoleMessage(CefBrowser browser, CefSettings.LogSeverity level, String message, String source, int line) {
-        for (CefDisplayHandler displayHandler : displayHandlers)
+        boolean dropped = browser instanceof MCEFBrowser mcefBrowser && !mcefBrowser.getConsole().accept(level, message, source, line);
+        // the console only filters what MCEF keeps, the handlers see every message
+        for (CefDisplayHandler displayHandler : displayHandlers.get(browser))
             if (displayHandler.onConsoleMessage(browser, level, message, source, line))
                 return true;
-        return false;
+        // messages the console filtered out are kept out of CEF's own log too
+        return dropped;
     }
 
     @Override
     public boolean onCursorChange(CefBrowser browser, int cursorType) {
-        for (CefDisplayHandler displayHandler : displayHandlers)
+        for (CefDisplayHandler displayHandler : displayHandlers.get(browser))
             if (displayHandler.onCursorChange(browser, cursorType))
                 return true;
         return false;
@@ -155,10 +317,22 @@ public class MCEFClient implements CefLoadHandler, CefContextMenuHandler, CefDis
     public void addAudioHandler(CefAudioHandler handler) {
         audioHandlers.add(handler);
     }
+
+    public void addAudioHandler(CefBrowser browser, CefAudioHandler handler) {
+        audioHandlers.add(browser, handler);
+    }
+
+    public void removeAudioHandler(CefAudioHandler handler) {
+        audioHandlers.remove(handler);
+    }
+
+    public void removeAudioHandler(CefBrowser browser, CefAudioHandler handler) {
+        audioHandlers.remove(browser, handler);
+    }
     
     @Override
     public boolean getAudioParameters(CefBrowser browser, CefAudioParameters params) {
-        for (CefAudioHandler audioHandler : audioHandlers) {
+        for (CefAudioHandler audioHandler : audioHandlers.get(browser)) {
             if (audioHandler.getAudioParameters(browser, params))
                 return true;
         }
@@ -167,28 +341,28 @@ public class MCEFClient implements CefLoadHandler, CefContextMenuHandler, CefDis
     
     @Override
     public void onAudioStreamStarted(CefBrowser browser, CefAudioParameters params, int channels) {
-        for (CefAudioHandler audioHandler : audioHandlers) {
+        for (CefAudioHandler audioHandler : audioHandlers.get(browser)) {
             audioHandler.onAudioStreamStarted(browser, params, channels);
         }
     }
     
     @Override
     public void onAudioStreamPacket(CefBrowser browser, DataPointer data, int frames, long pts) {
-        for (CefAudioHandler audioHandler : audioHandlers) {
+        for (CefAudioHandler audioHandler : audioHandlers.get(browser)) {
             audioHandler.onAudioStreamPacket(browser, data, frames, pts);
         }
     }
     
     @Override
     public void onAudioStreamStopped(CefBrowser browser) {
-        for (CefAudioHandler audioHandler : audioHandlers) {
+        for (CefAudioHandler audioHandler : audioHandlers.get(browser)) {
             audioHandler.onAudioStreamStopped(browser);
         }
     }
     
     @Override
     public void onAudioStreamError(CefBrowser browser, String text) {
-        for (CefAudioHandler audioHandler : audioHandlers) {
+        for (CefAudioHandler audioHandler : audioHandlers.get(browser)) {
             audioHandler.onAudioStreamError(browser, text);
         }
         MCEF.getLogger().warn("An audio stream threw an error: " + text);
@@ -0,0 +1,270 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import com.cinemamod.mcef.listeners.MCEFConsoleListener;
+import org.cef.CefSettings.LogSeverity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The console of a browser. Every console message of the page passes through here, and is then passed on to the
+ * display handlers of {@link MCEFClient} whatever happened to it here. With {@link #setFiltering(boolean) filtering}:
+ * <ol>
+ *     <li>a message identical to the previous one is dropped, and counted as a repeat of it</li>
+ *     <li>a message over the rate limit of its severity is dropped</li>
+ *     <li>anything else is kept in a bounded ring buffer and delivered to the listeners (sinks)</li>
+ * </ol>
+ * Without filtering, which is the default, every message is kept and delivered. Dropping a message doesn't allocate anything.
+ */
+public class MCEFConsole {
+    private static final LogSeverity[] SEVERITIES = LogSeverity.values();
+
+    /**
+     * A listener which writes console messages to MCEF's log.
+     */
+    public static final MCEFConsoleListener LOGGER = (browser, level, message, source, line, dropped) -> {
+        String suffix = dropped > 0 ? " (" + dropped + " messages dropped before this one)" : "";
+        switch (level) {
+            case LOGSEVERITY_ERROR, LOGSEVERITY_FATAL ->
+                    MCEF.getLogger().error("[Console] {} ({}:{}){}", message, source, line, suffix);
+            case LOGSEVERITY_WARNING -> MCEF.getLogger().warn("[Console] {} ({}:{}){}", message, source, line, suffix);
+            default -> MCEF.getLogger().info("[Console] {} ({}:{}){}", message, source, line, suffix);
+        }
+    };
+
+    private final MCEFBrowser browser;
+    private final List<MCEFConsoleListener> listeners = new CopyOnWriteArrayList<>();
+    private boolean filtering = false;
+
+    // Ring buffer of delivered messages, the entries are reused
+    private Entry[] entries;
+    private int next = 0;
+    private int size = 0;
+    private Entry last;
+
+    // Token bucket per severity
+    private final float[] rates = new float[SEVERITIES.length];
+    private final float[] bursts = new float[SEVERITIES.length];
+    private final float[] tokens = new float[SEVERITIES.length];
+    private final long[] refillNanos = new long[SEVERITIES.length];
+
+    private long received = 0;
+    private long delivered = 0;
+    private long repeated = 0;
+    private final long[] rateLimited = new long[SEVERITIES.length];
+    private long droppedSinceDelivery = 0;
+
+    MCEFConsole(MCEFBrowser browser) {
+        this.browser = browser;
+        setCapacity(256);
+        for (LogSeverity severity : SEVERITIES) {
+            boolean important = severity == LogSeverity.LOGSEVERITY_ERROR || severity == LogSeverity.LOGSEVERITY_FATAL;
+            setRateLimit(severity, important ? 50 : 20, important ? 100 : 50);
+        }
+    }
+
+    public void addListener(MCEFConsoleListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MCEFConsoleListener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized boolean isFiltering() {
+        return filtering;
+    }
+
+    /**
+     * Only affects what is kept and delivered to the listeners; the display handlers always get every message.
+     *
+     * @param filtering whether repeated messages and messages over the rate limit are dropped
+     */
+    public synchronized void setFiltering(boolean filtering) {
+        this.filtering = filtering;
+    }
+
+    /**
+     * @param capacity how many of the most recent messages are kept; clears the messages kept so far
+     */
+    public synchronized void setCapacity(int capacity) {
+        entries = new Entry[Math.max(1, capacity)];
+        for (int i = 0; i < entries.length; i++) entries[i] = new Entry();
+        next = size = 0;
+        last = null;
+    }
+
+    /**
+     * @param severity  the severity to limit
+     * @param perSecond how many messages of this severity are delivered per second, on average
+     * @param burst     how many messages of this severity can be delivered at once, after a quiet period
+     */
+    public synchronized void setRateLimit(LogSeverity severity, float perSecond, float burst) {
+        int i = severity.ordinal();
+        rates[i] = perSecond;
+        bursts[i] = burst;
+        tokens[i] = burst;
+        refillNanos[i] = System.nanoTime();
+    }
+
+    /**
+     * Runs a console message through the console. Called by {@link MCEFClient}.
+     *
+     * @return whether the message was delivered, false if it was dropped
+     */
+    synchronized boolean accept(LogSeverity level, String message, String source, int line) {
+        received++;
+
+        if (filtering && last != null && last.level == level && last.line == line &&
+                Objects.equals(last.source, source) && Objects.equals(last.message, message)) {
+            last.repeats++;
+            repeated++;
+            droppedSinceDelivery++;
+            return false;
+        }
+
+        if (filtering) {
+            int i = level.ordinal();
+            long now = System.nanoTime();
+            tokens[i] = Math.min(bursts[i], tokens[i] + (now - refillNanos[i]) * rates[i] / 1e9f);
+            refillNanos[i] = now;
+            if (tokens[i] < 1) {
+                rateLimited[i]++;
+                droppedSinceDelivery++;
+                return false;
+            }
+            tokens[i]--;
+        }
+
+        Entry entry = entries[next];
+        entry.set(level, message, source, line, System.currentTimeMillis());
+        next = (next + 1) % entries.length;
+        size = Math.min(size + 1, entries.length);
+        last = entry;
+        delivered++;
+
+        long dropped = droppedSinceDelivery;
+        droppedSinceDelivery = 0;
+        for (MCEFConsoleListener listener : listeners)
+            listener.onConsoleMessage(browser, level, message, source, line, dropped);
+        return true;
+    }
+
+    /**
+     * @return copies of the kept messages, oldest first
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> copies = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Entry entry = entries[(next - size + i + entries.length) % entries.length];
+            copies.add(entry.copy());
+        }
+        return copies;
+    }
+
+    public synchronized void clear() {
+        next = size = 0;
+        last = null;
+    }
+
+    // Stats
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return how many messages were dropped for being identical to the previous one
+     */
+    public synchronized long getRepeated() {
+        return repeated;
+    }
+
+    /**
+     * @return how many messages of a severity were dropped by its rate limit
+     */
+    public synchronized long getRateLimited(LogSeverity severity) {
+        return rateLimited[severity.ordinal()];
+    }
+
+    public static final class Entry {
+        private LogSeverity level;
+        private String message;
+        private String source;
+        private int line;
+        private long timestamp;
+        private int repeats;
+
+        private void set(LogSeverity level, String message, String source, int line, long timestamp) {
+            this.level = level;
+            this.message = message;
+            this.source = source;
+            this.line = line;
+            this.timestamp = timestamp;
+            this.repeats = 0;
+        }
+
+        private Entry copy() {
+            Entry copy = new Entry();
+            copy.set(level, message, source, line, timestamp);
+            copy.repeats = repeats;
+            return copy;
+        }
+
+        public LogSeverity getLevel() {
+            return level;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * @return when the message was received, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return how many times the message was repeated right after it
+         */
+        public int getRepeats() {
+            return repeats;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import java.awt.*;
+
+/**
+ * Merges the dirty rects of a paint before they are uploaded.
+ * Overlapping and touching rects are combined into their bounding box, and once the merged area passes
+ * {@link #getFullUploadThreshold()} of the view, a single upload spanning every dirty row is used instead.
+ * Fewer, larger uploads are preferred since the per-call driver overhead is what costs, not the bytes.
+ */
+public class MCEFDirtyRectCoalescer {
+    private float fullUploadThreshold = 0.6f;
+
+    // x0, y0, x1, y1 for every rect, end coordinates are exclusive
+    private int[] bounds = new int[4 * 16];
+    private Rectangle[] output = new Rectangle[16];
+    private int outputCount = 0;
+
+    private long paints = 0;
+    private long rectsIn = 0;
+    private long uploadsOut = 0;
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+
+    /**
+     * Gets the fraction of the view which, once covered by the merged rects, causes a full row span upload.
+     *
+     * @return a value between 0 and 1
+     */
+    public float getFullUploadThreshold() {
+        return fullUploadThreshold;
+    }
+
+    /**
+     * @param fullUploadThreshold the fraction of the view (0 to 1) at which the merged rects are replaced by
+     *                            one upload of every row between the topmost and bottommost dirty row
+     */
+    public void setFullUploadThreshold(float fullUploadThreshold) {
+        this.fullUploadThreshold = Math.max(0, Math.min(1, fullUploadThreshold));
+    }
+
+    /**
+     * Merges the given dirty rects. The result is available through {@link #getRects()} and {@link #getCount()}
+     * until the next call; the returned rects are reused between calls and must not be kept.
+     *
+     * @param dirtyRects the dirty rects reported by CEF
+     * @param width      the width of the view
+     * @param height     the height of the view
+     * @return the amount of rects that should be uploaded
+     */
+    public int coalesce(Rectangle[] dirtyRects, int width, int height) {
+        int count = 0;
+        long requested = 0;
+        ensureBounds(dirtyRects.length);
+        for (Rectangle rect : dirtyRects) {
+            int x0 = Math.max(rect.x, 0);
+            int y0 = Math.max(rect.y, 0);
+            int x1 = Math.min(rect.x + rect.width, width);
+            int y1 = Math.min(rect.y + rect.height, height);
+            if (x1 <= x0 || y1 <= y0) continue;
+            requested += (long) (x1 - x0) * (y1 - y0);
+            int i = count++ * 4;
+            bounds[i] = x0;
+            bounds[i + 1] = y0;
+            bounds[i + 2] = x1;
+            bounds[i + 3] = y1;
+        }
+
+        count = merge(count);
+
+        long area = 0;
+        int minY = height, maxY = 0;
+        for (int i = 0; i < count; i++) {
+            int b = i * 4;
+            area += (long) (bounds[b + 2] - bounds[b]) * (bounds[b + 3] - bounds[b + 1]);
+            minY = Math.min(minY, bounds[b + 1]);
+            maxY = Math.max(maxY, bounds[b + 3]);
+        }
+
+        if (count > 1 && area >= (long) width * height * fullUploadThreshold) {
+            // one upload of contiguous rows beats many scattered ones
+            bounds[0] = 0;
+            bounds[1] = minY;
+            bounds[2] = width;
+            bounds[3] = maxY;
+            count = 1;
+            area = (long) width * (maxY - minY);
+        }
+
+        ensureOutput(count);
+        for (int i = 0; i < count; i++) {
+            int b = i * 4;
+            output[i].setBounds(bounds[b], bounds[b + 1], bounds[b + 2] - bounds[b], bounds[b + 3] - bounds[b + 1]);
+        }
+        outputCount = count;
+
+        paints++;
+        rectsIn += dirtyRects.length;
+        uploadsOut += count;
+        bytesIn += requested * 4;
+        bytesOut += area * 4;
+        return count;
+    }
+
+    /**
+     * Repeatedly merges any two rects that overlap or share an edge until none are left to merge.
+     */
+    private int merge(int count) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < count; i++) {
+                int a = i * 4;
+                for (int j = i + 1; j < count; j++) {
+                    int b = j * 4;
+                    if (bounds[a] <= bounds[b + 2] && bounds[b] <= bounds[a + 2] &&
+                            bounds[a + 1] <= bounds[b + 3] && bounds[b + 1] <= bounds[a + 3]) {
+                        bounds[a] = Math.min(bounds[a], bounds[b]);
+                        bounds[a + 1] = Math.min(bounds[a + 1], bounds[b + 1]);
+                        bounds[a + 2] = Math.max(bounds[a + 2], bounds[b + 2]);
+                        bounds[a + 3] = Math.max(bounds[a + 3], bounds[b + 3]);
+                        // move the last rect into the freed slot and check it against the grown rect
+                        int last = --count * 4;
+                        System.arraycopy(bounds, last, bounds, b, 4);
+                        j = i;
+                        merged = true;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    public Rectangle[] getRects() {
+        return output;
+    }
+
+    public int getCount() {
+        return outputCount;
+    }
+
+    private void ensureBounds(int count) {
+        if (bounds.length < count * 4) bounds = new int[count * 4];
+    }
+
+    private void ensureOutput(int count) {
+        if (output.length < count) {
+            Rectangle[] grown = new Rectangle[Math.max(count, output.length * 2)];
+            System.arraycopy(output, 0, grown, 0, output.length);
+            output = grown;
+        }
+        for (int i = 0; i < count; i++)
+            if (output[i] == null) output[i] = new Rectangle();
+    }
+
+    // Stats
+
+    public long getPaints() {
+        return paints;
+    }
+
+    /**
+     * @return the amount of dirty rects CEF reported
+     */
+    public long getRectsIn() {
+        return rectsIn;
+    }
+
+    /**
+     * @return the amount of uploads that were actually issued
+     */
+    public long getUploadsOut() {
+        return uploadsOut;
+    }
+
+    public long getUploadsSaved() {
+        return rectsIn - uploadsOut;
+    }
+
+    /**
+     * @return the bytes covered by the dirty rects CEF reported
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return the bytes that were actually uploaded
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Negative when merging uploaded more than was dirty, which is the expected trade for fewer uploads.
+     *
+     * @return the difference between the dirty bytes and the uploaded bytes
+     */
+    public long getBytesSaved() {
+        return bytesIn - bytesOut;
+    }
+
+    public void resetStats() {
+        paints = rectsIn = uploadsOut = bytesIn = bytesOut = 0;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A triple buffer of off-heap frames, sitting between CEF's paint callback (the producer)
+ * and the render thread (the consumer).
+ * <p>
+ * The producer copies the dirty regions of every paint into its back frame and publishes it, the consumer
+ * picks up whichever frame was published last. Frames published in between are never uploaded, but their
+ * dirty regions are carried over to the next published frame so nothing is lost.
+ * <p>
+ * Frames are swapped through a single atomic, so the consumer never blocks. {@link #publish} and {@link #close}
+ * share a lock, which keeps the frames from being freed during a copy; the render thread only takes it when closing.
+ */
+final class MCEFFrameMailbox {
+    /**
+     * Set on {@link #state} when the middle frame was published and has not been taken by the consumer yet.
+     */
+    private static final int FRESH = 4;
+
+    private final Frame[] frames = {new Frame(), new Frame(), new Frame()};
+    /**
+     * The index of the middle frame, or'd with {@link #FRESH}.
+     */
+    private final AtomicInteger state = new AtomicInteger(1);
+    private int front = 0; // consumer owned
+    private int back = 2; // producer owned
+
+    /**
+     * Damage which was published but not yet known to be taken by the consumer; producer owned.
+     */
+    private final Damage undelivered = new Damage();
+    /**
+     * An estimate of how many bytes uploading the pending frame takes, for scheduling.
+     */
+    private volatile long pendingBytes = 0;
+    private boolean closed = false;
+
+    /**
+     * Copies a paint into the back frame and publishes it. Called from CEF's paint callback.
+     */
+    synchronized void publish(ByteBuffer buffer, Rectangle[] dirtyRects, int width, int height) {
+        if (closed) return;
+        Frame frame = frames[back];
+
+        if (frame.width != width || frame.height != height) {
+            // the producer owns the back frame, so it's safe to reallocate it here
+            frame.allocate(width, height);
+            frame.stale.setFull(width, height);
+        }
+
+        // bring the frame up to date; CEF's buffer always holds the full view, so copying
+        // everything this frame missed plus the new damage makes it complete again
+        for (Rectangle rect : dirtyRects) frame.stale.add(rect.x, rect.y, rect.width, rect.height, width, height);
+        frame.stale.copy(MemoryUtil.memAddress(buffer), frame.address, width);
+        frame.stale.clear();
+
+        for (int i = 0; i < frames.length; i++) {
+            if (i == back) continue;
+            for (Rectangle rect : dirtyRects) frames[i].stale.add(rect.x, rect.y, rect.width, rect.height, width, height);
+        }
+
+        // the frame carries everything the consumer hasn't seen yet, as the previous frame may get skipped
+        for (Rectangle rect : dirtyRects) undelivered.add(rect.x, rect.y, rect.width, rect.height, width, height);
+        frame.damage.set(undelivered);
+        pendingBytes = undelivered.area() * 4;
+
+        int previous = state.getAndSet(back | FRESH);
+        back = previous & 3;
+        if ((previous & FRESH) == 0) {
+            // the consumer took the previous frame, so only the frame just published is outstanding
+            undelivered.clear();
+            for (Rectangle rect : dirtyRects) undelivered.add(rect.x, rect.y, rect.width, rect.height, width, height);
+        }
+    }
+
+    /**
+     * @return whether a frame was published since the last {@link #acquire()}
+     */
+    boolean hasFrame() {
+        return (state.get() & FRESH) != 0;
+    }
+
+    /**
+     * @return roughly how many bytes uploading the newest frame takes, or 0 if there is no new frame
+     */
+    long getPendingBytes() {
+        return hasFrame() ? pendingBytes : 0;
+    }
+
+    /**
+     * Takes the newest published frame. Called from the render thread.
+     *
+     * @return the newest frame, or null if nothing was published since the last call
+     */
+    Frame acquire() {
+        if ((state.get() & FRESH) == 0) return null;
+        int previous = state.getAndSet(front);
+        front = previous & 3;
+        Frame frame = frames[front];
+        return frame.address == 0 ? null : frame;
+    }
+
+    synchronized void close() {
+        closed = true;
+        for (Frame frame : frames) frame.free();
+    }
+
+    static final class Frame {
+        private long address = 0;
+        private int width = 0, height = 0;
+        private final Damage stale = new Damage();
+        private final Damage damage = new Damage();
+
+        private void allocate(int width, int height) {
+            free();
+            address = MemoryUtil.nmemAlloc((long) width * height * 4);
+            this.width = width;
+            this.height = height;
+        }
+
+        private void free() {
+            if (address != 0) {
+                MemoryUtil.nmemFree(address);
+                address = 0;
+            }
+            width = height = 0;
+        }
+
+        ByteBuffer getBuffer() {
+            return MemoryUtil.memByteBuffer(address, width * height * 4);
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return the regions that changed since the consumer's last frame
+         */
+        Rectangle[] getDirtyRects() {
+            return damage.toRects();
+        }
+    }
+
+    /**
+     * A small set of damaged rects; collapses into their bounding box once it runs out of room.
+     */
+    static final class Damage {
+        private static final int MAX_RECTS = 8;
+
+        private final int[] bounds = new int[MAX_RECTS * 4];
+        private int count = 0;
+        private Rectangle[] rects = new Rectangle[0];
+
+        void add(int x, int y, int width, int height, int viewWidth, int viewHeight) {
+            int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+            int x1 = Math.min(x + width, viewWidth), y1 = Math.min(y + height, viewHeight);
+            if (x1 <= x0 || y1 <= y0) return;
+
+            for (int i = 0; i < count; i++) {
+                int b = i * 4;
+                if (bounds[b] <= x0 && bounds[b + 1] <= y0 && bounds[b + 2] >= x1 && bounds[b + 3] >= y1)
+                    return; // already covered
+            }
+
+            if (count == MAX_RECTS) {
+                for (int i = 1; i < count; i++) {
+                    int b = i * 4;
+                    bounds[0] = Math.min(bounds[0], bounds[b]);
+                    bounds[1] = Math.min(bounds[1], bounds[b + 1]);
+                    bounds[2] = Math.max(bounds[2], bounds[b + 2]);
+                    bounds[3] = Math.max(bounds[3], bounds[b + 3]);
+                }
+                count = 1;
+                bounds[0] = Math.min(bounds[0], x0);
+                bounds[1] = Math.min(bounds[1], y0);
+                bounds[2] = Math.max(bounds[2], x1);
+                bounds[3] = Math.max(bounds[3], y1);
+                return;
+            }
+
+            int b = count++ * 4;
+            bounds[b] = x0;
+            bounds[b + 1] = y0;
+            bounds[b + 2] = x1;
+            bounds[b + 3] = y1;
+        }
+
+        void setFull(int width, int height) {
+            count = 1;
+            bounds[0] = 0;
+            bounds[1] = 0;
+            bounds[2] = width;
+            bounds[3] = height;
+        }
+
+        void set(Damage other) {
+            System.arraycopy(other.bounds, 0, bounds, 0, other.count * 4);
+            count = other.count;
+        }
+
+        void clear() {
+            count = 0;
+        }
+
+        long area() {
+            long area = 0;
+            for (int i = 0; i < count; i++) {
+                int b = i * 4;
+                area += (long) (bounds[b + 2] - bounds[b]) * (bounds[b + 3] - bounds[b + 1]);
+            }
+            return area;
+        }
+
+        /**
+         * Copies the damaged regions from one view sized buffer to another.
+         */
+        void copy(long from, long to, int rowLength) {
+            long stride = (long) rowLength * 4;
+            for (int i = 0; i < count; i++) {
+                int b = i * 4;
+                long offset = ((long) bounds[b + 1] * rowLength + bounds[b]) * 4;
+                long rowBytes = (long) (bounds[b + 2] - bounds[b]) * 4;
+                for (int row = bounds[b + 1]; row < bounds[b + 3]; row++) {
+                    MemoryUtil.memCopy(from + offset, to + offset, rowBytes);
+                    offset += stride;
+                }
+            }
+        }
+
+        Rectangle[] toRects() {
+            if (rects.length != count) {
+                rects = new Rectangle[count];
+                for (int i = 0; i < count; i++) rects[i] = new Rectangle();
+            }
+            for (int i = 0; i < count; i++) {
+                int b = i * 4;
+                rects[i].setBounds(bounds[b], bounds[b + 1], bounds[b + 2] - bounds[b], bounds[b + 3] - bounds[b + 1]);
+            }
+            return rects;
+        }
+    }
+}
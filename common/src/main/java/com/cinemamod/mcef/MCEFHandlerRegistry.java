@@ -0,0 +1,121 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import org.cef.browser.CefBrowser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The handlers of one kind registered with {@link MCEFClient}, either globally or for a single browser.
+ * <p>
+ * Handlers are kept in arrays which are replaced, never modified, so CEF can iterate them without locking while
+ * handlers are (un)registered from other threads. Every browser with handlers of its own has a snapshot of its
+ * handlers followed by the global ones, so dispatching is one map lookup.
+ * <p>
+ * Browsers are held weakly, like by {@link MCEFBrowserTicker}, so the handlers of a browser which is dropped
+ * without being closed don't keep it (or themselves) from being collected, as long as they don't reference the browser.
+ */
+final class MCEFHandlerRegistry<T> {
+    private final T[] empty;
+    private volatile T[] global;
+    // Guarded by this
+    private final Map<CefBrowser, T[]> browsers = new WeakHashMap<>();
+    // A weak map expunges collected keys on reads too, so even reads need the lock; it's held for a single lookup
+    private final Map<CefBrowser, T[]> snapshots = Collections.synchronizedMap(new WeakHashMap<>());
+
+    MCEFHandlerRegistry(T[] empty) {
+        this.empty = empty;
+        this.global = empty;
+    }
+
+    /**
+     * @return the handlers for a browser, its own first, then the global ones; must not be modified
+     */
+    T[] get(CefBrowser browser) {
+        if (browser == null) return global;
+        T[] snapshot = snapshots.get(browser);
+        return snapshot == null ? global : snapshot;
+    }
+
+    synchronized void add(T handler) {
+        global = append(global, handler);
+        refreshSnapshots();
+    }
+
+    synchronized void remove(T handler) {
+        global = without(global, handler);
+        refreshSnapshots();
+    }
+
+    synchronized void add(CefBrowser browser, T handler) {
+        T[] handlers = append(browsers.getOrDefault(browser, empty), handler);
+        browsers.put(browser, handlers);
+        snapshots.put(browser, concat(handlers, global));
+    }
+
+    synchronized void remove(CefBrowser browser, T handler) {
+        T[] handlers = browsers.get(browser);
+        if (handlers == null) return;
+        handlers = without(handlers, handler);
+        if (handlers.length == 0) {
+            removeAll(browser);
+            return;
+        }
+        browsers.put(browser, handlers);
+        snapshots.put(browser, concat(handlers, global));
+    }
+
+    synchronized void removeAll(CefBrowser browser) {
+        browsers.remove(browser);
+        snapshots.remove(browser);
+    }
+
+    private void refreshSnapshots() {
+        for (Map.Entry<CefBrowser, T[]> entry : browsers.entrySet())
+            snapshots.put(entry.getKey(), concat(entry.getValue(), global));
+    }
+
+    private static <T> T[] append(T[] handlers, T handler) {
+        T[] appended = Arrays.copyOf(handlers, handlers.length + 1);
+        appended[handlers.length] = handler;
+        return appended;
+    }
+
+    private static <T> T[] without(T[] handlers, T handler) {
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i] != handler) continue;
+            T[] removed = Arrays.copyOf(handlers, handlers.length - 1);
+            System.arraycopy(handlers, i + 1, removed, i, handlers.length - i - 1);
+            return removed;
+        }
+        return handlers;
+    }
+
+    private static <T> T[] concat(T[] first, T[] second) {
+        T[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        return both;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import org.cef.event.CefKeyEvent;
+import org.cef.event.CefMouseEvent;
+import org.cef.event.CefMouseWheelEvent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * The input events of a browser. If the java-cef build has writable event fields, a single event of each kind is
+ * refilled for every send instead of allocating a new one; CEF copies the event during the native call, and all
+ * input is sent from the render thread. Otherwise a new event is created for every send.
+ * <p>
+ * Which one is used is decided once, by looking at the event classes; see {@link #isReusingEvents()}.
+ */
+final class MCEFInputEvents {
+    private static final VarHandle KEY_ID, KEY_CODE, KEY_CHAR, KEY_MODIFIERS;
+    private static final VarHandle MOUSE_ID, MOUSE_X, MOUSE_Y, MOUSE_CLICK_COUNT, MOUSE_BUTTON, MOUSE_MODIFIERS;
+    private static final VarHandle WHEEL_X, WHEEL_Y, WHEEL_AMOUNT, WHEEL_MODIFIERS;
+    private static final boolean REUSE;
+
+    static {
+        VarHandle keyId = null, keyCode = null, keyChar = null, keyModifiers = null;
+        VarHandle mouseId = null, mouseX = null, mouseY = null, mouseClickCount = null, mouseButton = null, mouseModifiers = null;
+        VarHandle wheelX = null, wheelY = null, wheelAmount = null, wheelModifiers = null;
+        boolean reuse;
+        try {
+            keyId = writable(CefKeyEvent.class, "id", int.class);
+            keyCode = writable(CefKeyEvent.class, "keyCode", int.class);
+            keyChar = writable(CefKeyEvent.class, "keyChar", char.class);
+            keyModifiers = writable(CefKeyEvent.class, "modifiers", int.class);
+            mouseId = writable(CefMouseEvent.class, "id", int.class);
+            mouseX = writable(CefMouseEvent.class, "x", int.class);
+            mouseY = writable(CefMouseEvent.class, "y", int.class);
+            mouseClickCount = writable(CefMouseEvent.class, "clickCount", int.class);
+            mouseButton = writable(CefMouseEvent.class, "button", int.class);
+            mouseModifiers = writable(CefMouseEvent.class, "modifiers", int.class);
+            wheelX = writable(CefMouseWheelEvent.class, "x", int.class);
+            wheelY = writable(CefMouseWheelEvent.class, "y", int.class);
+            wheelAmount = writable(CefMouseWheelEvent.class, "amount", double.class);
+            wheelModifiers = writable(CefMouseWheelEvent.class, "modifiers", int.class);
+            reuse = true;
+        } catch (ReflectiveOperationException e) {
+            MCEF.getLogger().info("Input events are allocated per send: " + e.getMessage());
+            reuse = false;
+        }
+        KEY_ID = keyId;
+        KEY_CODE = keyCode;
+        KEY_CHAR = keyChar;
+        KEY_MODIFIERS = keyModifiers;
+        MOUSE_ID = mouseId;
+        MOUSE_X = mouseX;
+        MOUSE_Y = mouseY;
+        MOUSE_CLICK_COUNT = mouseClickCount;
+        MOUSE_BUTTON = mouseButton;
+        MOUSE_MODIFIERS = mouseModifiers;
+        WHEEL_X = wheelX;
+        WHEEL_Y = wheelY;
+        WHEEL_AMOUNT = wheelAmount;
+        WHEEL_MODIFIERS = wheelModifiers;
+        REUSE = reuse;
+    }
+
+    private final boolean reuse;
+    private final CefKeyEvent keyEvent = new CefKeyEvent(CefKeyEvent.KEY_PRESS, 0, (char) 0, 0);
+    private final CefMouseEvent mouseEvent = new CefMouseEvent(CefMouseEvent.MOUSE_MOVED, 0, 0, 0, 0, 0);
+    private final CefMouseWheelEvent wheelEvent = new CefMouseWheelEvent(CefMouseWheelEvent.WHEEL_UNIT_SCROLL, 0, 0, 0, 0);
+
+    MCEFInputEvents() {
+        this(true);
+    }
+
+    /**
+     * @param reuse whether events should be reused where the java-cef build allows it; false always allocates
+     */
+    MCEFInputEvents(boolean reuse) {
+        this.reuse = reuse && REUSE;
+    }
+
+    static VarHandle writable(Class<?> type, String name, Class<?> fieldType) throws ReflectiveOperationException {
+        Field field = type.getField(name);
+        if (Modifier.isFinal(field.getModifiers()) || Modifier.isStatic(field.getModifiers()) || field.getType() != fieldType)
+            throw new NoSuchFieldException(type.getSimpleName() + "." + name + " is not a writable " + fieldType + " field");
+        return MethodHandles.publicLookup().unreflectVarHandle(field);
+    }
+
+    /**
+     * @return whether the java-cef build allows events to be reused, rather than allocated for every send
+     */
+    static boolean isReusingEvents() {
+        return REUSE;
+    }
+
+    /**
+     * @return whether these events are reused
+     */
+    boolean isReusing() {
+        return reuse;
+    }
+
+    CefKeyEvent key(int id, int keyCode, char keyChar, int modifiers, long scanCode) {
+        CefKeyEvent event = keyEvent;
+        if (reuse) {
+            KEY_ID.set(event, id);
+            KEY_CODE.set(event, keyCode);
+            KEY_CHAR.set(event, keyChar);
+            KEY_MODIFIERS.set(event, modifiers);
+        } else {
+            event = new CefKeyEvent(id, keyCode, keyChar, modifiers);
+        }
+        event.scancode = scanCode;
+        return event;
+    }
+
+    CefMouseEvent mouse(int id, int x, int y, int clickCount, int button, int modifiers) {
+        if (!reuse) return new CefMouseEvent(id, x, y, clickCount, button, modifiers);
+        CefMouseEvent event = mouseEvent;
+        MOUSE_ID.set(event, id);
+        MOUSE_X.set(event, x);
+        MOUSE_Y.set(event, y);
+        MOUSE_CLICK_COUNT.set(event, clickCount);
+        MOUSE_BUTTON.set(event, button);
+        MOUSE_MODIFIERS.set(event, modifiers);
+        return event;
+    }
+
+    CefMouseWheelEvent wheel(int x, int y, double amount, int modifiers) {
+        if (!reuse) return new CefMouseWheelEvent(CefMouseWheelEvent.WHEEL_UNIT_SCROLL, x, y, amount, modifiers);
+        CefMouseWheelEvent event = wheelEvent;
+        WHEEL_X.set(event, x);
+        WHEEL_Y.set(event, y);
+        WHEEL_AMOUNT.set(event, amount);
+        WHEEL_MODIFIERS.set(event, modifiers);
+        return event;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs CEF's message loop work on the render thread, once per frame.
+ * <p>
+ * With an external message pump (see {@link MCEFSettings#isUsingExternalMessagePump()}), CEF tells us when it has
+ * work through {@link #scheduleWork(long)}. Frames in which nothing is due skip the call entirely, and when work is
+ * backed up (CEF keeps scheduling more right away), the loop work is run repeatedly until the per-frame
+ * {@link #getBudgetNanos() budget} runs out. Without an external pump, the loop work is run once every frame,
+ * and with the multi-threaded message loop it isn't run here at all.
+ */
+public final class MCEFMessagePump {
+    /**
+     * The longest the message loop goes without work, even if CEF didn't schedule any; CEF recommends this
+     * as a fallback, so work scheduled in a way that doesn't reach us isn't stuck forever.
+     */
+    private static final long MAX_IDLE_NANOS = 33_000_000;
+    /**
+     * An upper bound for the iterations in a single frame, in case the loop work returns immediately.
+     */
+    private static final int MAX_ITERATIONS = 16;
+
+    /**
+     * When the earliest scheduled work is due, in {@link System#nanoTime()} terms; written from any thread.
+     */
+    private static final AtomicLong WORK_DUE_NANOS = new AtomicLong(Long.MIN_VALUE);
+
+    private static boolean external = false;
+    private static long budgetNanos = MCEF.getSettings().getMessagePumpBudgetMicros() * 1000L;
+    private static long lastPumpNanos = 0;
+
+    private static long frameNanos = 0;
+    private static long maxFrameNanos = 0;
+    private static long totalNanos = 0;
+    private static long iterations = 0;
+    private static long pumpedFrames = 0;
+    private static long skippedFrames = 0;
+
+    private MCEFMessagePump() {
+    }
+
+    /**
+     * Called by {@link CefUtil} when CEF is set up with an external message pump.
+     */
+    static void useExternalPump() {
+        external = true;
+    }
+
+    /**
+     * Called by CEF, from any thread, when there is work for the message loop.
+     *
+     * @param delayMs how long until the work should be done
+     */
+    static void scheduleWork(long delayMs) {
+        long due = System.nanoTime() + Math.max(0, delayMs) * 1_000_000;
+        WORK_DUE_NANOS.accumulateAndGet(due, Math::min);
+    }
+
+    public static boolean isExternal() {
+        return external;
+    }
+
+    public static long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /**
+     * @param budgetNanos how long the message loop work may run for in a single frame when work is backed up;
+     *                    a frame always gets at least one iteration if work is due
+     */
+    public static void setBudgetNanos(long budgetNanos) {
+        MCEFMessagePump.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * This gets called by {@link com.cinemamod.mcef.mixins.CefRenderUpdateMixin} once per frame.
+     * This should not be called by anything else.
+     */
+    public static void pump() {
+        // CEF's own UI thread does the work
+        if (CefUtil.isMultiThreadedMessageLoop()) return;
+
+        long start = System.nanoTime();
+        if (external && start < WORK_DUE_NANOS.get() && start - lastPumpNanos < MAX_IDLE_NANOS) {
+            frameNanos = 0;
+            skippedFrames++;
+            return;
+        }
+
+        int count = 0;
+        long now;
+        do {
+            // anything CEF schedules while doing this work lowers it again
+            WORK_DUE_NANOS.set(Long.MAX_VALUE);
+            MCEF.getApp().getHandle().N_DoMessageLoopWork();
+            count++;
+            now = System.nanoTime();
+        } while (external && count < MAX_ITERATIONS && now - start < budgetNanos && now >= WORK_DUE_NANOS.get());
+
+        lastPumpNanos = now;
+        frameNanos = now - start;
+        maxFrameNanos = Math.max(maxFrameNanos, frameNanos);
+        totalNanos += frameNanos;
+        iterations += count;
+        pumpedFrames++;
+    }
+
+    // Stats
+
+    /**
+     * @return how long the message loop work took in the last frame, 0 if it was skipped
+     */
+    public static long getFrameNanos() {
+        return frameNanos;
+    }
+
+    public static long getMaxFrameNanos() {
+        return maxFrameNanos;
+    }
+
+    /**
+     * @return how long the message loop work took in total
+     */
+    public static long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return how many times the message loop work was run
+     */
+    public static long getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the amount of frames in which the message loop work was run
+     */
+    public static long getPumpedFrames() {
+        return pumpedFrames;
+    }
+
+    /**
+     * @return the amount of frames in which no work was due, so the message loop work was skipped
+     */
+    public static long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public static void resetStats() {
+        maxFrameNanos = totalNanos = iterations = pumpedFrames = skippedFrames = 0;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * A small ring of pixel unpack buffers (PBOs) used by {@link MCEFRenderer} for streaming uploads.
+ * Pixels are copied into the next buffer in the ring and the texture upload is issued from that buffer,
+ * so the driver can DMA the data to the GPU while the render thread moves on to the next frame.
+ * All methods must be called on the render thread.
+ */
+final class MCEFPixelBufferRing {
+    private final int[] buffers;
+    private final long[] capacities;
+    private int index = -1;
+
+    MCEFPixelBufferRing(int size) {
+        buffers = new int[size];
+        capacities = new long[size];
+    }
+
+    /**
+     * Advances to the next buffer in the ring, binds it as the unpack buffer and maps it for writing.
+     * The previous contents are orphaned, so mapping never waits on an upload that is still in flight.
+     *
+     * @param bytes the amount of bytes that are going to be written
+     * @return the address of the mapped buffer, or 0 if the buffer could not be mapped (nothing is left bound in that case)
+     */
+    long begin(long bytes) {
+        index = (index + 1) % buffers.length;
+        if (buffers[index] == 0) buffers[index] = glGenBuffers();
+
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, buffers[index]);
+        if (capacities[index] < bytes) capacities[index] = bytes;
+        // orphan the old storage, the driver hands back a fresh block if the GPU is still reading the old one
+        glBufferData(GL_PIXEL_UNPACK_BUFFER, capacities[index], GL_STREAM_DRAW);
+
+        ByteBuffer mapped = glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, bytes,
+                GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (mapped == null) {
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+            return 0;
+        }
+        return MemoryUtil.memAddress(mapped);
+    }
+
+    /**
+     * Unmaps the current buffer; it stays bound so that texture uploads can source from it by offset.
+     *
+     * @return false if the buffer contents were lost while mapped, in which case the upload should be skipped
+     */
+    boolean unmap() {
+        return glUnmapBuffer(GL_PIXEL_UNPACK_BUFFER);
+    }
+
+    /**
+     * Unbinds the unpack buffer; Minecraft's own texture uploads would otherwise read from it.
+     */
+    void end() {
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+    }
+
+    void cleanup() {
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] != 0) {
+                glDeleteBuffers(buffers[i]);
+                buffers[i] = 0;
+                capacities[i] = 0;
+            }
+        }
+        index = -1;
+    }
+}
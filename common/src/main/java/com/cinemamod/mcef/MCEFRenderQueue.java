@@ -0,0 +1,61 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A lock-free queue of work that has to happen on the render thread (GL and GLFW calls), for CEF callbacks
+ * which run on CEF's own UI thread when the multi-threaded message loop is used,
+ * see {@link MCEFSettings#isUsingMultiThreadedMessageLoop()}. The queue is drained once per frame.
+ */
+public final class MCEFRenderQueue {
+    private static final Queue<Runnable> QUEUE = new ConcurrentLinkedQueue<>();
+
+    private MCEFRenderQueue() {
+    }
+
+    /**
+     * Runs the task right away when called on the render thread, otherwise queues it for the next frame.
+     */
+    public static void execute(Runnable task) {
+        if (RenderSystem.isOnRenderThread()) task.run();
+        else QUEUE.add(task);
+    }
+
+    /**
+     * This gets called by {@link com.cinemamod.mcef.mixins.CefRenderUpdateMixin} once per frame.
+     * This should not be called by anything else.
+     */
+    public static void drain() {
+        Runnable task;
+        while ((task = QUEUE.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                MCEF.getLogger().error("Render thread task failed", e);
+            }
+        }
+    }
+}
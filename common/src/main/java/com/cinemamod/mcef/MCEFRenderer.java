@@ -20,18 +20,99 @@
 
 package com.cinemamod.mcef;
 
+import com.mojang.blaze3d.platform.GlStateManager;
 import com.mojang.blaze3d.systems.RenderSystem;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryUtil;
 
+import java.awt.*;
 import java.nio.ByteBuffer;
 
-import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL30.*;
 
 public class MCEFRenderer {
+    /**
+     * How many pixel unpack buffers are cycled through in streaming mode.
+     * Three is enough for the driver to still be reading one while the next is being filled.
+     */
+    private static final int PIXEL_BUFFER_COUNT = 3;
+    /**
+     * With bucketed storage, textures are allocated in multiples of this, so that resizing within a bucket doesn't reallocate.
+     */
+    private static final int STORAGE_BUCKET = 256;
+
     private final boolean transparent;
     private final int[] textureID = new int[1];
+    private final MCEFDirtyRectCoalescer coalescer = new MCEFDirtyRectCoalescer();
+    /**
+     * Whether paints are copied into a ring of pixel unpack buffers instead of being uploaded straight from CEF's buffer.
+     */
+    private boolean streamingUpload;
+    private MCEFPixelBufferRing pixelBuffers;
+    /**
+     * When set, paints are only copied into this mailbox and uploaded later on the render thread.
+     */
+    private volatile MCEFFrameMailbox mailbox;
+    /**
+     * The size of the view in the texture, which is only the valid region of the allocated storage.
+     */
+    private int textureWidth = 0, textureHeight = 0;
+    private int storageWidth = 0, storageHeight = 0;
+    /**
+     * Whether storage is allocated in {@link #STORAGE_BUCKET} steps instead of the exact size of the view.
+     */
+    private boolean bucketedStorage;
+    /**
+     * Set when the storage has to be reallocated with the next full upload, e.g. after changing the mipmap levels.
+     */
+    private boolean storageChanged = false;
+    /**
+     * Whether {@link #textureID} has immutable storage, which can't be allocated again.
+     */
+    private boolean textureImmutable = false;
+
+    // Mipmaps, only the levels under dirty regions are regenerated after an upload
+    private int mipmapLevels = 1;
+    private int storageLevels = 1;
+    private final int[] mipFramebuffers = new int[2];
+
+    // Texture atlas; while the view is in a region of an atlas page, that page takes the place of textureID
+    private MCEFTextureAtlas atlas;
+    private MCEFTextureAtlas.Region atlasRegion;
+    private int originX = 0, originY = 0;
+
+    // Scheduling, see MCEFUploadScheduler
+    private long lastDrawnFrame = -1;
+    private long uploadedFrames = 0;
+    private long deferredFrames = 0;
+    private int consecutiveDeferrals = 0;
+    private int maxConsecutiveDeferrals = 0;
+    private long uploadNanos = 0;
+
+    // Popups (dropdowns and such) are painted by CEF separately from the view, into a texture of their own.
+    // By default that texture is blitted into the view texture; with a separate popup layer it is drawn by the caller
+    private final int[] popupTextureID = new int[1];
+    private volatile MCEFFrameMailbox popupMailbox;
+    private volatile Rectangle popupRect;
+    private volatile boolean popupShown = false;
+    private int popupTextureWidth = 0, popupTextureHeight = 0;
+    private boolean separatePopupLayer = false;
+    // The view texels under the blitted popup, so it can be taken out again when it closes or moves
+    private final int[] popupBackingID = new int[1];
+    private int popupBackingWidth = 0, popupBackingHeight = 0;
+    /**
+     * Where the popup is blitted into the view texture, in texels of the view; null if it isn't.
+     */
+    private Rectangle compositedPopup;
 
     protected MCEFRenderer(boolean transparent) {
         this.transparent = transparent;
+        this.streamingUpload = MCEF.getSettings().isUsingStreamingUpload();
+        this.bucketedStorage = MCEF.getSettings().isUsingBucketedStorage();
+        // with the multi-threaded message loop, paints arrive off the render thread and can only be queued
+        if (MCEF.getSettings().isUsingFrameMailbox() || CefUtil.isMultiThreadedMessageLoop()) setUseFrameMailbox(true);
     }
 
     public void initialize() {
@@ -39,37 +120,782 @@ public class MCEFRenderer {
         RenderSystem.bindTexture(textureID[0]);
         RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
         RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
         RenderSystem.bindTexture(0);
     }
 
+    /**
+     * Gets the texture of the browser view. By default the texture is exactly the size of the view and can be drawn
+     * with texture coordinates 0 to 1. With {@link #setBucketedStorage(boolean) bucketed storage} or a
+     * {@link #setAtlas(MCEFTextureAtlas) texture atlas}, only part of the texture holds the view
+     * (see {@link #getU0()} to {@link #getV1()}) and the texture id may change when the browser is resized,
+     * so it should be queried every frame.
+     *
+     * @return the view texture
+     */
     public int getTextureID() {
-        return textureID[0];
+        markDrawn();
+        return viewTexture();
+    }
+
+    /**
+     * Marks the texture as drawn this frame, which keeps the browser from hibernating
+     * (see {@link MCEFBrowser#setHibernateAfterFrames(int)}). {@link #getTextureID()} does this already;
+     * call it every frame the browser is visible when the texture id is cached or drawn some other way.
+     */
+    public void markDrawn() {
+        lastDrawnFrame = MCEFBrowserTicker.getFrame();
+    }
+
+    private int viewTexture() {
+        return atlasRegion != null ? atlasRegion.getTextureID() : textureID[0];
+    }
+
+    /**
+     * @return whether the view only fills part of the texture; its texture coordinates are then inset by half a texel
+     * on every side, so linear filtering doesn't pull in the texels around it
+     */
+    private boolean isPadded() {
+        return atlasRegion != null || textureWidth != storageWidth || textureHeight != storageHeight;
+    }
+
+    /**
+     * The horizontal texture coordinate of the left edge of the view, to be used instead of 0.
+     * It is only non-zero when the view doesn't fill the whole texture.
+     *
+     * @return the u coordinate of the left edge of the view
+     */
+    public float getU0() {
+        return isPadded() ? (originX + 0.5f) / storageWidth : 0;
+    }
+
+    /**
+     * See {@link #getU0()}, this is the vertical texture coordinate of the top edge of the view.
+     *
+     * @return the v coordinate of the top edge of the view
+     */
+    public float getV0() {
+        return isPadded() ? (originY + 0.5f) / storageHeight : 0;
+    }
+
+    /**
+     * The horizontal texture coordinate of the right edge of the view, to be used instead of 1.
+     * It is only less than 1 when the view doesn't fill the whole texture.
+     *
+     * @return the u coordinate of the right edge of the view
+     */
+    public float getU1() {
+        return isPadded() ? (originX + textureWidth - 0.5f) / storageWidth : 1;
+    }
+
+    /**
+     * See {@link #getU1()}, this is the vertical texture coordinate of the bottom edge of the view.
+     *
+     * @return the v coordinate of the bottom edge of the view
+     */
+    public float getV1() {
+        return isPadded() ? (originY + textureHeight - 0.5f) / storageHeight : 1;
     }
 
     public boolean isTransparent() {
         return transparent;
     }
 
+    /**
+     * Gets the texture of the popup (e.g. an open {@code <select>} dropdown). Only needed with a
+     * {@link MCEFBrowser#useSeparatePopupLayer(boolean) separate popup layer}; otherwise the popup is already
+     * part of {@link #getTextureID()}.
+     *
+     * @return the popup texture, or 0 if no popup was painted yet
+     */
+    public int getPopupTextureID() {
+        return popupTextureID[0];
+    }
+
+    /**
+     * @return whether the popup layer should currently be drawn on top of the view; always false unless
+     * a {@link MCEFBrowser#useSeparatePopupLayer(boolean) separate popup layer} is used
+     */
+    public boolean isPopupVisible() {
+        return separatePopupLayer && popupShown && popupRect != null && popupTextureID[0] != 0;
+    }
+
+    public boolean isUsingSeparatePopupLayer() {
+        return separatePopupLayer;
+    }
+
+    /**
+     * See {@link MCEFBrowser#useSeparatePopupLayer(boolean)}. Must be called on the render thread.
+     */
+    void setSeparatePopupLayer(boolean separatePopupLayer) {
+        this.separatePopupLayer = separatePopupLayer;
+        if (textureID[0] != 0) compositePopup();
+    }
+
+    /**
+     * Gets where the popup layer is, in the coordinates of the browser view (the same as {@link MCEFBrowser#resize(int, int)}
+     * and mouse input). Must not be modified.
+     *
+     * @return the popup bounds, or null if there is no popup
+     */
+    public Rectangle getPopupRect() {
+        return popupRect;
+    }
+
+    protected void onPopupShow(boolean show) {
+        popupShown = show;
+        MCEFRenderQueue.execute(this::updatePopup);
+    }
+
+    protected void onPopupSize(Rectangle rect) {
+        popupRect = new Rectangle(rect);
+        MCEFRenderQueue.execute(this::updatePopup);
+    }
+
+    private void updatePopup() {
+        if (textureID[0] != 0) compositePopup();
+    }
+
+    /**
+     * Gets the stage that merges dirty rects before they are uploaded; it can be configured and holds stats
+     * about how many uploads and bytes merging saved.
+     *
+     * @return the dirty rect coalescer of this renderer
+     */
+    public MCEFDirtyRectCoalescer getDirtyRectCoalescer() {
+        return coalescer;
+    }
+
+    public boolean isStreamingUpload() {
+        return streamingUpload;
+    }
+
+    /**
+     * Streaming uploads copy each paint into the next buffer of a small pixel buffer ring and let the driver
+     * transfer it to the texture asynchronously, instead of stalling the render thread on a synchronous upload.
+     * Defaults to {@link MCEFSettings#isUsingStreamingUpload()}.
+     *
+     * @param streamingUpload whether streaming uploads should be used
+     */
+    public void setStreamingUpload(boolean streamingUpload) {
+        this.streamingUpload = streamingUpload;
+    }
+
+    public boolean isBucketedStorage() {
+        return bucketedStorage;
+    }
+
+    /**
+     * Bucketed storage allocates the texture in {@link #STORAGE_BUCKET} pixel steps, as immutable storage where
+     * supported, so resizing within a bucket doesn't reallocate it. The view then only fills part of the texture,
+     * so it has to be drawn with {@link #getU0()} to {@link #getV1()}, and the texture id changes when a new bucket
+     * is allocated. Defaults to {@link MCEFSettings#isUsingBucketedStorage()}. Takes effect with the next full upload.
+     *
+     * @param bucketedStorage whether storage should be allocated in buckets
+     */
+    public void setBucketedStorage(boolean bucketedStorage) {
+        if (bucketedStorage == this.bucketedStorage) return;
+        this.bucketedStorage = bucketedStorage;
+        storageChanged = true;
+    }
+
+    public int getMipmapLevels() {
+        return mipmapLevels;
+    }
+
+    /**
+     * Mipmaps keep browsers which are drawn small (e.g. on a far away in-world display) from shimmering, and make
+     * sampling them cheaper. Only the parts of the mip chain below the dirty regions of a paint are regenerated,
+     * by downsampling one level into the next. Takes effect with the next full upload of the view, see
+     * {@link MCEFBrowser#useMipmaps(int)} which also requests one. Ignored while the view is in a texture atlas.
+     *
+     * @param mipmapLevels the maximum amount of levels including the base level, 1 to disable mipmaps
+     */
+    public void setMipmapLevels(int mipmapLevels) {
+        mipmapLevels = Math.max(1, mipmapLevels);
+        if (mipmapLevels == this.mipmapLevels) return;
+        this.mipmapLevels = mipmapLevels;
+        storageChanged = true;
+    }
+
+    public MCEFTextureAtlas getAtlas() {
+        return atlas;
+    }
+
+    /**
+     * Puts the view into a region of a shared atlas texture instead of a texture of its own, if it is small enough.
+     * Takes effect with the next full upload of the view, see {@link MCEFBrowser#useAtlas(MCEFTextureAtlas)} which
+     * also requests one. Must be called on the render thread.
+     *
+     * @param atlas the atlas to use, or null to use a texture of its own
+     */
+    public void setAtlas(MCEFTextureAtlas atlas) {
+        if (atlas == this.atlas) return;
+        this.atlas = atlas;
+        storageChanged = true;
+    }
+
+    public boolean isUsingFrameMailbox() {
+        return mailbox != null;
+    }
+
+    /**
+     * With a frame mailbox, CEF's paint callback never touches GL; it only copies the dirty regions into an
+     * off-heap triple buffer. The newest complete frame is then uploaded once per Minecraft frame and any frames
+     * painted in between are dropped, which bounds the upload cost no matter how fast the page paints.
+     * Defaults to {@link MCEFSettings#isUsingFrameMailbox()}. Disabling it must happen on the render thread,
+     * and is ignored when the {@link MCEFSettings#isUsingMultiThreadedMessageLoop() multi-threaded message loop} is used.
+     *
+     * @param useFrameMailbox whether paints should go through a frame mailbox
+     */
+    public void setUseFrameMailbox(boolean useFrameMailbox) {
+        if (useFrameMailbox == (mailbox != null)) return;
+        if (useFrameMailbox) {
+            mailbox = new MCEFFrameMailbox();
+            popupMailbox = new MCEFFrameMailbox();
+        } else if (!CefUtil.isMultiThreadedMessageLoop()) {
+            closeMailboxes();
+        }
+    }
+
+    private void closeMailboxes() {
+        mailbox.close();
+        popupMailbox.close();
+        mailbox = null;
+        popupMailbox = null;
+    }
+
     protected void cleanup() {
+        if (mailbox != null) closeMailboxes();
+        releaseAtlasRegion();
         if (textureID[0] != 0) {
             glDeleteTextures(textureID[0]);
             textureID[0] = 0;
         }
+        if (popupTextureID[0] != 0) {
+            glDeleteTextures(popupTextureID[0]);
+            popupTextureID[0] = 0;
+        }
+        if (popupBackingID[0] != 0) {
+            glDeleteTextures(popupBackingID[0]);
+            popupBackingID[0] = 0;
+        }
+        compositedPopup = null;
+        if (pixelBuffers != null) {
+            pixelBuffers.cleanup();
+            pixelBuffers = null;
+        }
+        if (mipFramebuffers[0] != 0) {
+            glDeleteFramebuffers(mipFramebuffers);
+            mipFramebuffers[0] = mipFramebuffers[1] = 0;
+        }
     }
 
+    /**
+     * Copies a paint into the frame mailbox, if this renderer uses one. Safe to call from any thread.
+     *
+     * @return false if this renderer has no frame mailbox and the paint needs to be uploaded directly
+     */
+    protected boolean queuePaint(ByteBuffer buffer, Rectangle[] dirtyRects, int width, int height) {
+        MCEFFrameMailbox mailbox = this.mailbox;
+        if (mailbox == null) return false;
+        mailbox.publish(buffer, dirtyRects, width, height);
+        return true;
+    }
+
+    /**
+     * Copies a popup paint into the popup mailbox, or uploads it to the popup layer directly if this renderer
+     * has no frame mailbox.
+     *
+     * @param width  the width of the popup
+     * @param height the height of the popup
+     */
+    protected void onPopupPaint(ByteBuffer buffer, Rectangle[] dirtyRects, int width, int height) {
+        MCEFFrameMailbox popupMailbox = this.popupMailbox;
+        if (popupMailbox != null) {
+            popupMailbox.publish(buffer, dirtyRects, width, height);
+            return;
+        }
+        uploadPopup(buffer, dirtyRects, width, height);
+    }
+
+    private void uploadPopup(ByteBuffer buffer, Rectangle[] dirtyRects, int width, int height) {
+        if (popupTextureID[0] == 0) {
+            popupTextureID[0] = glGenTextures();
+            RenderSystem.bindTexture(popupTextureID[0]);
+            RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        } else {
+            RenderSystem.bindTexture(popupTextureID[0]);
+        }
+
+        setUnpackState(width, 0, 0);
+        if (width != popupTextureWidth || height != popupTextureHeight) {
+            popupTextureWidth = width;
+            popupTextureHeight = height;
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0,
+                    GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, buffer);
+        } else {
+            for (Rectangle dirtyRect : dirtyRects) {
+                RenderSystem.pixelStore(GL_UNPACK_SKIP_PIXELS, dirtyRect.x);
+                RenderSystem.pixelStore(GL_UNPACK_SKIP_ROWS, dirtyRect.y);
+                onPaint(buffer, dirtyRect.x, dirtyRect.y, dirtyRect.width, dirtyRect.height);
+            }
+        }
+        if (textureID[0] != 0) compositePopup();
+    }
+
+    /**
+     * Blits the popup into the view texture, unless a separate popup layer is used or there is no popup,
+     * in which case a popup blitted before is taken out again. The view texels under the popup are kept
+     * in a backing texture first, so closing or moving the popup doesn't need CEF to repaint the view.
+     */
+    private void compositePopup() {
+        Rectangle rect = popupRect;
+        if (separatePopupLayer || !popupShown || rect == null || popupTextureID[0] == 0 || textureWidth == 0) {
+            restorePopupBacking();
+            return;
+        }
+        // the popup rect is in view coordinates and its paint in texels, which differ with a scaled resolution
+        float scale = (float) popupTextureWidth / Math.max(1, rect.width);
+        int x = Math.round(rect.x * scale), y = Math.round(rect.y * scale);
+        int x0 = Math.max(0, x), y0 = Math.max(0, y);
+        int x1 = Math.min(textureWidth, x + popupTextureWidth), y1 = Math.min(textureHeight, y + popupTextureHeight);
+        if (x1 <= x0 || y1 <= y0) {
+            restorePopupBacking();
+            return;
+        }
+
+        Rectangle target = new Rectangle(x0, y0, x1 - x0, y1 - y0);
+        if (!target.equals(compositedPopup)) {
+            restorePopupBacking();
+            if (target.width > popupBackingWidth || target.height > popupBackingHeight) {
+                if (popupBackingID[0] == 0) popupBackingID[0] = glGenTextures();
+                popupBackingWidth = Math.max(popupBackingWidth, target.width);
+                popupBackingHeight = Math.max(popupBackingHeight, target.height);
+                RenderSystem.bindTexture(popupBackingID[0]);
+                glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, popupBackingWidth, popupBackingHeight, 0,
+                        GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, (ByteBuffer) null);
+            }
+            blit(viewTexture(), originX + x0, originY + y0, popupBackingID[0], 0, 0, target.width, target.height);
+            compositedPopup = target;
+        }
+        blit(popupTextureID[0], x0 - x, y0 - y, viewTexture(), originX + x0, originY + y0, target.width, target.height);
+        updateMipmaps(x0, y0, x1, y1);
+    }
+
+    /**
+     * Takes a blitted popup out of the view texture again.
+     */
+    private void restorePopupBacking() {
+        Rectangle rect = compositedPopup;
+        if (rect == null) return;
+        compositedPopup = null;
+        blit(popupBackingID[0], 0, 0, viewTexture(), originX + rect.x, originY + rect.y, rect.width, rect.height);
+        updateMipmaps(rect.x, rect.y, rect.x + rect.width, rect.y + rect.height);
+    }
+
+    /**
+     * Copies a region of the base level of one texture into another, with a framebuffer blit.
+     */
+    private void blit(int source, int sourceX, int sourceY, int target, int targetX, int targetY, int width, int height) {
+        if (mipFramebuffers[0] == 0) glGenFramebuffers(mipFramebuffers);
+        int readFramebuffer = glGetInteger(GL_READ_FRAMEBUFFER_BINDING);
+        int drawFramebuffer = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+        boolean scissor = glIsEnabled(GL_SCISSOR_TEST);
+        if (scissor) GlStateManager._disableScissorTest();
+
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, mipFramebuffers[0]);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, mipFramebuffers[1]);
+        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, source, 0);
+        glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, target, 0);
+        glBlitFramebuffer(sourceX, sourceY, sourceX + width, sourceY + height,
+                targetX, targetY, targetX + width, targetY + height, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
+        glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
+
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, readFramebuffer);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, drawFramebuffer);
+        if (scissor) GlStateManager._enableScissorTest();
+    }
+
+    /**
+     * @return whether the frame mailbox holds a frame that wasn't uploaded yet
+     */
+    boolean hasPendingFrame() {
+        MCEFFrameMailbox mailbox = this.mailbox;
+        return textureID[0] != 0 && mailbox != null && (mailbox.hasFrame() || popupMailbox.hasFrame());
+    }
+
+    /**
+     * @return roughly how many bytes uploading the pending frame takes
+     */
+    long getPendingBytes() {
+        MCEFFrameMailbox mailbox = this.mailbox;
+        return mailbox == null ? 0 : mailbox.getPendingBytes();
+    }
+
+    /**
+     * Uploads the newest frame in the mailbox, if a new one was painted since the last call.
+     *
+     * @return how many bytes were uploaded
+     */
+    protected long uploadFrame() {
+        if (textureID[0] == 0 || mailbox == null) return 0;
+        consecutiveDeferrals = 0;
+        long start = System.nanoTime();
+
+        long bytes = 0;
+        MCEFFrameMailbox.Frame frame = mailbox.acquire();
+        if (frame != null) {
+            uploadedFrames++;
+            long before = coalescer.getBytesOut();
+            boolean full = frame.getWidth() != textureWidth || frame.getHeight() != textureHeight;
+            onPaint(frame.getBuffer(), frame.getWidth(), frame.getHeight(), frame.getDirtyRects());
+            bytes = full ? (long) frame.getWidth() * frame.getHeight() * 4 : coalescer.getBytesOut() - before;
+        }
+
+        MCEFFrameMailbox.Frame popupFrame = popupMailbox.acquire();
+        if (popupFrame != null) {
+            uploadPopup(popupFrame.getBuffer(), popupFrame.getDirtyRects(), popupFrame.getWidth(), popupFrame.getHeight());
+            bytes += (long) popupFrame.getWidth() * popupFrame.getHeight() * 4;
+        }
+        uploadNanos += System.nanoTime() - start;
+        return bytes;
+    }
+
+    /**
+     * @return the time spent uploading mailbox frames since the last call
+     */
+    long takeUploadNanos() {
+        long nanos = uploadNanos;
+        uploadNanos = 0;
+        return nanos;
+    }
+
+    /**
+     * Called by the {@link MCEFUploadScheduler} when the pending frame didn't fit in this frame's budget.
+     */
+    void deferFrame() {
+        deferredFrames++;
+        consecutiveDeferrals++;
+        maxConsecutiveDeferrals = Math.max(maxConsecutiveDeferrals, consecutiveDeferrals);
+    }
+
+    /**
+     * @return the last {@link MCEFBrowserTicker#getFrame() frame} in which the texture was requested for drawing
+     */
+    public long getLastDrawnFrame() {
+        return lastDrawnFrame;
+    }
+
+    /**
+     * @return how many mailbox frames were uploaded
+     */
+    public long getUploadedFrames() {
+        return uploadedFrames;
+    }
+
+    /**
+     * @return how many times the upload of a pending frame was deferred to a later frame
+     */
+    public long getDeferredFrames() {
+        return deferredFrames;
+    }
+
+    /**
+     * @return how many frames in a row the current pending frame has been deferred for
+     */
+    public int getConsecutiveDeferrals() {
+        return consecutiveDeferrals;
+    }
+
+    /**
+     * @return the longest a pending frame has been deferred for, in frames
+     */
+    public int getMaxConsecutiveDeferrals() {
+        return maxConsecutiveDeferrals;
+    }
+
+    /**
+     * Uploads a full paint of the view, e.g. after the browser was resized.
+     * With bucketed storage, the texture storage is only reallocated if the view doesn't fit in it anymore,
+     * or if it became much smaller.
+     */
     protected void onPaint(ByteBuffer buffer, int width, int height) {
         if (textureID[0] == 0) return;
         if (transparent) RenderSystem.enableBlend();
+        // every texel is uploaded again, including the ones under a blitted popup
+        compositedPopup = null;
+        ensureStorage(width, height);
+        textureWidth = width;
+        textureHeight = height;
+
+        long address = beginStreaming((long) width * height * 4);
+        if (address != 0) {
+            MemoryUtil.memCopy(MemoryUtil.memAddress(buffer), address, (long) width * height * 4);
+            if (pixelBuffers.unmap()) {
+                setUnpackState(width, 0, 0);
+                glTexSubImage2D(GL_TEXTURE_2D, 0, originX, originY, width, height,
+                        GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+            }
+            pixelBuffers.end();
+        } else {
+            setUnpackState(width, 0, 0);
+            onPaint(buffer, originX, originY, width, height);
+        }
+        updateMipmaps(0, 0, width, height);
+        compositePopup();
+    }
+
+    /**
+     * Makes sure the texture storage can hold a view of the given size, and binds the texture.
+     * By default storage is exactly the size of the view and the texture keeps its id. With bucketed storage,
+     * it's allocated in {@link #STORAGE_BUCKET} steps and is immutable where supported, which means a larger bucket
+     * needs a new texture.
+     */
+    private void ensureStorage(int width, int height) {
+        if (atlas != null && ensureAtlasRegion(width, height)) return;
+        if (atlas == null) releaseAtlasRegion();
+
+        int allocatedWidth = width, allocatedHeight = height;
+        if (bucketedStorage) {
+            boolean fits = width <= storageWidth && height <= storageHeight;
+            boolean wasteful = width * 2 <= storageWidth && height * 2 <= storageHeight;
+            if (fits && !wasteful && !storageChanged) {
+                RenderSystem.bindTexture(textureID[0]);
+                return;
+            }
+            allocatedWidth = (width + STORAGE_BUCKET - 1) / STORAGE_BUCKET * STORAGE_BUCKET;
+            allocatedHeight = (height + STORAGE_BUCKET - 1) / STORAGE_BUCKET * STORAGE_BUCKET;
+        } else if (width == storageWidth && height == storageHeight && !storageChanged) {
+            RenderSystem.bindTexture(textureID[0]);
+            return;
+        }
+        // a full chain goes down to 1x1
+        int levels = Math.min(mipmapLevels, 32 - Integer.numberOfLeadingZeros(Math.max(allocatedWidth, allocatedHeight)));
+
+        GLCapabilities capabilities = GL.getCapabilities();
+        boolean immutable = bucketedStorage && (capabilities.OpenGL42 || capabilities.GL_ARB_texture_storage);
+        if (textureImmutable) {
+            // immutable storage can't be resized, it takes a new texture
+            GlStateManager._deleteTexture(textureID[0]);
+            initialize();
+        }
         RenderSystem.bindTexture(textureID[0]);
-        RenderSystem.pixelStore(GL_UNPACK_ROW_LENGTH, width);
-        RenderSystem.pixelStore(GL_UNPACK_SKIP_PIXELS, 0);
-        RenderSystem.pixelStore(GL_UNPACK_SKIP_ROWS, 0);
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0,
-                GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, buffer);
+        if (immutable) {
+            GL42.glTexStorage2D(GL_TEXTURE_2D, levels, GL_RGBA8, allocatedWidth, allocatedHeight);
+        } else {
+            for (int level = 0; level < levels; level++) {
+                glTexImage2D(GL_TEXTURE_2D, level, GL_RGBA8, Math.max(1, allocatedWidth >> level),
+                        Math.max(1, allocatedHeight >> level), 0, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, (ByteBuffer) null);
+            }
+        }
+        RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, levels - 1);
+        RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, levels > 1 ? GL_LINEAR_MIPMAP_LINEAR : GL_LINEAR);
+        storageWidth = allocatedWidth;
+        storageHeight = allocatedHeight;
+        storageLevels = levels;
+        storageChanged = false;
+        textureImmutable = immutable;
+    }
+
+    /**
+     * Makes sure the view has a region in the atlas that fits it, and binds the atlas page.
+     *
+     * @return false if the view is too large for the atlas
+     */
+    private boolean ensureAtlasRegion(int width, int height) {
+        MCEFTextureAtlas.Region region = atlasRegion;
+        boolean fits = region != null && width <= region.getWidth() && height <= region.getHeight();
+        boolean wasteful = fits && width * 2 <= region.getWidth() && height * 2 <= region.getHeight();
+        if (!fits || wasteful || storageChanged) {
+            releaseAtlasRegion();
+            region = atlas.allocate(width, height);
+            if (region == null) return false;
+            atlasRegion = region;
+            originX = region.getX();
+            originY = region.getY();
+            storageWidth = storageHeight = atlas.getPageSize();
+            // neighbouring regions would bleed into each other's mip levels
+            storageLevels = 1;
+            storageChanged = false;
+        }
+        RenderSystem.bindTexture(region.getTextureID());
+        return true;
+    }
+
+    private void releaseAtlasRegion() {
+        if (atlasRegion == null) return;
+        atlasRegion.release();
+        atlasRegion = null;
+        originX = originY = 0;
+        // the storage size was the atlas page's, make the next upload allocate the texture of our own again
+        storageWidth = storageHeight = 0;
+    }
+
+    /**
+     * Regenerates the mip levels below a region of the base level which was just uploaded, by downsampling
+     * each level into the next with a framebuffer blit. Only the texels the region touches are redone.
+     * The texture must be bound.
+     */
+    private void updateMipmaps(int x0, int y0, int x1, int y1) {
+        if (storageLevels <= 1 || x1 <= x0 || y1 <= y0) return;
+        if (mipFramebuffers[0] == 0) glGenFramebuffers(mipFramebuffers);
+
+        int readFramebuffer = glGetInteger(GL_READ_FRAMEBUFFER_BINDING);
+        int drawFramebuffer = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+        // blits are clipped by the scissor box, Minecraft may have one enabled for its GUI
+        boolean scissor = glIsEnabled(GL_SCISSOR_TEST);
+        if (scissor) GlStateManager._disableScissorTest();
+
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, mipFramebuffers[0]);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, mipFramebuffers[1]);
+        for (int level = 1; level < storageLevels; level++) {
+            // only the view's part of each level is used; past it lies the padding of the storage, which must not
+            // be blended into the view's edge texels
+            int sourceWidth = mipSize(textureWidth, storageWidth, level - 1);
+            int sourceHeight = mipSize(textureHeight, storageHeight, level - 1);
+            // every texel of the next level covers two texels of this one, so round the region outwards
+            x0 = x0 >> 1;
+            y0 = y0 >> 1;
+            x1 = Math.min((x1 + 1) >> 1, mipSize(textureWidth, storageWidth, level));
+            y1 = Math.min((y1 + 1) >> 1, mipSize(textureHeight, storageHeight, level));
+
+            glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, textureID[0], level - 1);
+            glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, textureID[0], level);
+            glBlitFramebuffer(x0 * 2, y0 * 2, Math.min(x1 * 2, sourceWidth), Math.min(y1 * 2, sourceHeight),
+                    x0, y0, x1, y1, GL_COLOR_BUFFER_BIT, GL_LINEAR);
+        }
+        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
+        glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
+
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, readFramebuffer);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, drawFramebuffer);
+        if (scissor) GlStateManager._enableScissorTest();
+    }
+
+    /**
+     * @return the size of the view at a mip level, rounded up so the view's last texels are covered, but never
+     * past the level's storage, which GL rounds down
+     */
+    private static int mipSize(int viewSize, int storageSize, int level) {
+        return Math.min(((viewSize - 1) >> level) + 1, Math.max(1, storageSize >> level));
+    }
+
+    /**
+     * Uploads the dirty regions of a paint into the texture.
+     * The rects are merged by the {@link MCEFDirtyRectCoalescer} first, to issue as few uploads as possible.
+     *
+     * @param buffer     the full view buffer given to us by CEF
+     * @param width      the width of the view, used as the row length of the buffer
+     * @param height     the height of the view
+     * @param dirtyRects the regions of the buffer which changed
+     */
+    protected void onPaint(ByteBuffer buffer, int width, int height, Rectangle[] dirtyRects) {
+        if (textureID[0] == 0) return;
+        if (width != textureWidth || height != textureHeight || storageChanged) {
+            // the view was resized (or nothing was uploaded yet), everything needs to be uploaded
+            onPaint(buffer, width, height);
+            return;
+        }
+        RenderSystem.bindTexture(viewTexture());
+
+        int count = coalescer.coalesce(dirtyRects, width, height);
+        Rectangle[] rects = coalescer.getRects();
+
+        long bytes = 0;
+        int x0 = width, y0 = height, x1 = 0, y1 = 0;
+        for (int i = 0; i < count; i++) {
+            Rectangle rect = rects[i];
+            bytes += (long) rect.width * rect.height * 4;
+            x0 = Math.min(x0, rect.x);
+            y0 = Math.min(y0, rect.y);
+            x1 = Math.max(x1, rect.x + rect.width);
+            y1 = Math.max(y1, rect.y + rect.height);
+        }
+        // a paint under a blitted popup goes into the view without it, the popup is blitted again afterwards
+        Rectangle popup = compositedPopup;
+        boolean underPopup = popup != null && x0 < popup.x + popup.width && popup.x < x1 && y0 < popup.y + popup.height && popup.y < y1;
+        if (underPopup) {
+            restorePopupBacking();
+            RenderSystem.bindTexture(viewTexture());
+        }
+
+        long address = beginStreaming(bytes);
+        if (address != 0) {
+            // pack every rect tightly into the pixel buffer, then upload each from its offset
+            long source = MemoryUtil.memAddress(buffer);
+            long offset = 0;
+            for (int i = 0; i < count; i++) {
+                copyRect(source, width, rects[i], address + offset);
+                offset += (long) rects[i].width * rects[i].height * 4;
+            }
+            if (pixelBuffers.unmap()) {
+                offset = 0;
+                for (int i = 0; i < count; i++) {
+                    Rectangle dirtyRect = rects[i];
+                    setUnpackState(dirtyRect.width, 0, 0);
+                    glTexSubImage2D(GL_TEXTURE_2D, 0, originX + dirtyRect.x, originY + dirtyRect.y,
+                            dirtyRect.width, dirtyRect.height, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, offset);
+                    offset += (long) dirtyRect.width * dirtyRect.height * 4;
+                }
+            }
+            pixelBuffers.end();
+        } else {
+            RenderSystem.pixelStore(GL_UNPACK_ROW_LENGTH, width);
+            for (int i = 0; i < count; i++) {
+                Rectangle dirtyRect = rects[i];
+                RenderSystem.pixelStore(GL_UNPACK_SKIP_PIXELS, dirtyRect.x);
+                RenderSystem.pixelStore(GL_UNPACK_SKIP_ROWS, dirtyRect.y);
+                onPaint(buffer, originX + dirtyRect.x, originY + dirtyRect.y, dirtyRect.width, dirtyRect.height);
+            }
+        }
+        // the bounding box is one blit per level, that's cheaper than a blit per rect
+        updateMipmaps(x0, y0, x1, y1);
+        if (underPopup) compositePopup();
     }
 
     protected void onPaint(ByteBuffer buffer, int x, int y, int width, int height) {
         glTexSubImage2D(GL_TEXTURE_2D, 0, x, y, width, height, GL_BGRA,
                 GL_UNSIGNED_INT_8_8_8_8_REV, buffer);
     }
+
+    /**
+     * Maps the next pixel buffer if streaming uploads are enabled.
+     *
+     * @return the address to copy pixels to, or 0 if the upload should be done synchronously
+     */
+    private long beginStreaming(long bytes) {
+        if (!streamingUpload) {
+            if (pixelBuffers != null) {
+                pixelBuffers.cleanup();
+                pixelBuffers = null;
+            }
+            return 0;
+        }
+        if (bytes == 0) return 0;
+        if (pixelBuffers == null) pixelBuffers = new MCEFPixelBufferRing(PIXEL_BUFFER_COUNT);
+        return pixelBuffers.begin(bytes);
+    }
+
+    private static void copyRect(long source, int rowLength, Rectangle rect, long destination) {
+        long rowBytes = (long) rect.width * 4;
+        long stride = (long) rowLength * 4;
+        long from = source + ((long) rect.y * rowLength + rect.x) * 4;
+        if (rect.width == rowLength) {
+            // rows are contiguous, one copy does it
+            MemoryUtil.memCopy(from, destination, rowBytes * rect.height);
+            return;
+        }
+        for (int row = 0; row < rect.height; row++)
+            MemoryUtil.memCopy(from + row * stride, destination + row * rowBytes, rowBytes);
+    }
+
+    private static void setUnpackState(int rowLength, int skipPixels, int skipRows) {
+        RenderSystem.pixelStore(GL_UNPACK_ROW_LENGTH, rowLength);
+        RenderSystem.pixelStore(GL_UNPACK_SKIP_PIXELS, skipPixels);
+        RenderSystem.pixelStore(GL_UNPACK_SKIP_ROWS, skipRows);
+    }
 }
@@ -0,0 +1,142 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+/**
+ * Picks the resolution a browser renders at, based on the game's frame time and on how much of it the browser
+ * costs (painting and uploading). When frames take longer than the target and the browser is a meaningful part
+ * of that, the resolution is stepped down; when there is enough headroom to afford the next step up, it is
+ * stepped back up. Changes are spaced out so the resolution doesn't oscillate.
+ * <p>
+ * The scale is applied as CEF's device scale factor, so the page layout, the browser's size and the coordinates
+ * used for input all stay the same; only the amount of pixels CEF paints changes.
+ */
+public class MCEFResolutionController {
+    private static final float[] STEPS = {1.0f, 0.875f, 0.75f, 0.625f, 0.5f, 0.375f, 0.25f};
+    /**
+     * How many frames to wait after a step before the next one, so the averages can settle.
+     */
+    private static final int COOLDOWN_FRAMES = 30;
+    /**
+     * Weight of the newest sample in the moving averages.
+     */
+    private static final double SMOOTHING = 0.1;
+
+    private boolean enabled = false;
+    private long targetFrameTimeNanos = 1_000_000_000L / 60;
+    private float minScale = 0.5f;
+
+    private int step = 0;
+    private int cooldown = 0;
+    private double frameTimeAverage = 0;
+    private double costAverage = 0;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getTargetFrameTimeNanos() {
+        return targetFrameTimeNanos;
+    }
+
+    /**
+     * @param targetFrameTimeNanos the game frame time to stay under, defaults to 60 fps
+     */
+    public void setTargetFrameTimeNanos(long targetFrameTimeNanos) {
+        this.targetFrameTimeNanos = targetFrameTimeNanos;
+    }
+
+    public float getMinScale() {
+        return minScale;
+    }
+
+    /**
+     * @param minScale the lowest resolution scale to step down to, between 0.25 and 1
+     */
+    public void setMinScale(float minScale) {
+        this.minScale = minScale;
+    }
+
+    /**
+     * @return the current resolution scale, 1 when disabled
+     */
+    public float getScale() {
+        return enabled ? STEPS[step] : 1;
+    }
+
+    /**
+     * @return the average game frame time the controller sees
+     */
+    public double getFrameTimeAverage() {
+        return frameTimeAverage;
+    }
+
+    /**
+     * @return the average time per frame spent painting and uploading the browser
+     */
+    public double getCostAverage() {
+        return costAverage;
+    }
+
+    /**
+     * Called once per frame by the browser.
+     *
+     * @param frameTimeNanos how long the last game frame took
+     * @param costNanos      how long painting and uploading the browser took during the last frame
+     * @return the resolution scale the browser should render at
+     */
+    float update(long frameTimeNanos, long costNanos) {
+        frameTimeAverage += (frameTimeNanos - frameTimeAverage) * SMOOTHING;
+        costAverage += (costNanos - costAverage) * SMOOTHING;
+        if (!enabled) {
+            step = 0;
+            return 1;
+        }
+
+        if (cooldown > 0) {
+            cooldown--;
+            return STEPS[step];
+        }
+
+        boolean slow = frameTimeAverage > targetFrameTimeNanos * 1.1;
+        // only back off when the browser is a meaningful part of the frame, it can't fix a slow world
+        boolean costly = costAverage > frameTimeAverage * 0.05;
+        if (slow && costly) {
+            if (step + 1 < STEPS.length && STEPS[step + 1] >= minScale) {
+                step++;
+                cooldown = COOLDOWN_FRAMES;
+            }
+        } else if (step > 0) {
+            // the cost grows with the amount of pixels, make sure the next step up still fits in the target
+            float ratio = STEPS[step - 1] / STEPS[step];
+            double predicted = frameTimeAverage + costAverage * (ratio * ratio - 1);
+            if (predicted < targetFrameTimeNanos * 0.9) {
+                step--;
+                cooldown = COOLDOWN_FRAMES * 2;
+            }
+        }
+        return STEPS[step];
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A least recently used cache of the resources served by {@link ModScheme}, bounded by the bytes it holds.
+ * Resources are keyed by mod and path, and only resources of at most {@link #getMaxEntryBytes()} bytes are cached,
+ * so a single large file can't push out everything else.
+ * <p>
+ * Resources in unpacked directories (e.g. in a development environment) are checked for changes on every request
+ * instead, see {@link #getFile(String, Path)}, so they can be edited while the game is running.
+ */
+public final class MCEFResourceCache {
+    /**
+     * How many mappings of large unpacked files are kept at most; a dropped mapping is unmapped once it's collected.
+     */
+    private static final int MAX_MAPPINGS = 64;
+
+    private static final Map<String, Resource> CACHE = new LinkedHashMap<>(64, 0.75f, true);
+    // Unpacked files too large for the cache; their mappings are off-heap, so they don't count towards its size
+    private static final Map<String, Resource> MAPPINGS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Resource> eldest) {
+            if (size() <= MAX_MAPPINGS) return false;
+            evictions++;
+            return true;
+        }
+    };
+
+    private static long capacityBytes = 32L * 1024 * 1024;
+    private static long sizeBytes = 0;
+
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long evictions = 0;
+
+    private MCEFResourceCache() {
+    }
+
+    /**
+     * @return the cached resource, or null if it isn't cached or is an unpacked file, which has to be looked up
+     * through {@link #getFile(String, Path)}
+     */
+    static synchronized Resource get(String key) {
+        Resource resource = CACHE.get(key);
+        if (resource != null && resource.isFile()) return null;
+        if (resource == null) misses++;
+        else hits++;
+        return resource;
+    }
+
+    /**
+     * Gets an unpacked file, reloading it if its modification time or size changed since it was cached.
+     * Files of at most {@link #getMaxEntryBytes()} bytes are read onto the heap and cached like any other resource,
+     * so nothing keeps them open or mapped and they can be replaced freely (which Windows doesn't allow for a
+     * mapped file). Larger files are memory-mapped once and the mapping is reused until the file changes.
+     * A file that was deleted is dropped from the cache.
+     */
+    static Resource getFile(String key, Path path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            remove(key);
+            throw e;
+        }
+        long modified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+        synchronized (MCEFResourceCache.class) {
+            Resource cached = size <= getMaxEntryBytes() ? CACHE.get(key) : MAPPINGS.get(key);
+            if (cached != null && cached.isVersion(modified, size)) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+
+        if (size <= getMaxEntryBytes()) {
+            Resource resource = Resource.read(path, modified);
+            synchronized (MCEFResourceCache.class) {
+                // if the file shrunk, its old mapping must not keep it locked
+                MAPPINGS.remove(key);
+                put(key, resource);
+            }
+            return resource;
+        }
+        Resource resource = Resource.map(path, modified);
+        synchronized (MCEFResourceCache.class) {
+            Resource previous = CACHE.remove(key);
+            if (previous != null) sizeBytes -= previous.getLength();
+            MAPPINGS.put(key, resource);
+        }
+        return resource;
+    }
+
+    static synchronized void put(String key, Resource resource) {
+        if (resource.getLength() > getMaxEntryBytes()) return;
+        Resource previous = CACHE.put(key, resource);
+        if (previous != null) sizeBytes -= previous.getLength();
+        sizeBytes += resource.getLength();
+        trim();
+    }
+
+    private static synchronized void remove(String key) {
+        Resource previous = CACHE.remove(key);
+        if (previous != null) sizeBytes -= previous.getLength();
+        MAPPINGS.remove(key);
+    }
+
+    private static void trim() {
+        // iteration order is least recently used first
+        Iterator<Resource> iterator = CACHE.values().iterator();
+        while (sizeBytes > capacityBytes && iterator.hasNext()) {
+            sizeBytes -= iterator.next().getLength();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public static synchronized void clear() {
+        CACHE.clear();
+        MAPPINGS.clear();
+        sizeBytes = 0;
+    }
+
+    public static synchronized long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * @param capacityBytes how many bytes of resources are kept at most
+     */
+    public static synchronized void setCapacityBytes(long capacityBytes) {
+        MCEFResourceCache.capacityBytes = capacityBytes;
+        trim();
+    }
+
+    /**
+     * @return the size of the largest resource that is cached, a quarter of the capacity
+     */
+    public static synchronized long getMaxEntryBytes() {
+        return capacityBytes / 4;
+    }
+
+    // Stats
+
+    public static synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public static synchronized int getEntryCount() {
+        return CACHE.size();
+    }
+
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    public static synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public static synchronized void resetStats() {
+        hits = misses = evictions = 0;
+    }
+
+    /**
+     * The bytes of a resource, either loaded onto the heap or memory-mapped, with an entity tag for them.
+     */
+    static final class Resource {
+        private final ByteBuffer data;
+        private final String etag;
+        // The modification time of the unpacked file the resource was loaded from, -1 if it didn't come from one
+        private final long modified;
+
+        private Resource(ByteBuffer data, String etag, long modified) {
+            this.data = data;
+            this.etag = etag;
+            this.modified = modified;
+        }
+
+        static Resource of(byte[] data) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(data.length) + "\"";
+            return new Resource(ByteBuffer.wrap(data).asReadOnlyBuffer(), etag, -1);
+        }
+
+        /**
+         * Reads a small file onto the heap, without keeping it open.
+         */
+        static Resource read(Path path, long modified) throws IOException {
+            byte[] data = Files.readAllBytes(path);
+            return new Resource(ByteBuffer.wrap(data).asReadOnlyBuffer(), fileETag(modified, data.length), modified);
+        }
+
+        /**
+         * Maps a file into memory; the mapping stays valid after the channel is closed.
+         */
+        static Resource map(Path path, long modified) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) throw new IOException("Too large to map: " + path);
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return new Resource(data, fileETag(modified, size), modified);
+            }
+        }
+
+        /**
+         * The entity tag of a file comes from its size and modification time, hashing a large file would defeat the point.
+         */
+        private static String fileETag(long modified, long size) {
+            return "\"" + Long.toHexString(modified) + "-" + Long.toHexString(size) + "\"";
+        }
+
+        boolean isFile() {
+            return modified >= 0;
+        }
+
+        /**
+         * @return whether the resource was loaded from a file with this modification time and size
+         */
+        boolean isVersion(long modified, long size) {
+            return this.modified == modified && data.capacity() == size;
+        }
+
+        /**
+         * @return a view of the data with its own position, for a single request to read from
+         */
+        ByteBuffer getData() {
+            return data.duplicate();
+        }
+
+        int getLength() {
+            return data.capacity();
+        }
+
+        String getETag() {
+            return etag;
+        }
+    }
+}
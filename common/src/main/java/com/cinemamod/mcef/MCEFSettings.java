@@ -42,12 +42,28 @@ public class MCEFSettings {
     private String downloadMirror;
     private String userAgent;
     private boolean useCache;
+    private boolean streamingUpload;
+    private boolean frameMailbox;
+    private boolean bucketedStorage;
+    private int hibernateAfterFrames;
+    private boolean externalMessagePump;
+    private int messagePumpBudgetMicros;
+    private boolean multiThreadedMessageLoop;
+    private boolean asyncClientDispatch;
 
     public MCEFSettings() {
         skipDownload = false;
         downloadMirror = "https://mcef-download.cinemamod.com";
         userAgent = null;
         useCache = true;
+        streamingUpload = false;
+        frameMailbox = false;
+        bucketedStorage = false;
+        hibernateAfterFrames = 0;
+        externalMessagePump = false;
+        messagePumpBudgetMicros = 2000;
+        multiThreadedMessageLoop = false;
+        asyncClientDispatch = false;
     }
 
     public boolean isSkipDownload() {
@@ -86,6 +102,104 @@ public class MCEFSettings {
         saveAsync();
     }
 
+    public boolean isUsingStreamingUpload() {
+        return streamingUpload;
+    }
+
+    public void setUseStreamingUpload(boolean streamingUpload) {
+        this.streamingUpload = streamingUpload;
+        saveAsync();
+    }
+
+    public boolean isUsingFrameMailbox() {
+        return frameMailbox;
+    }
+
+    public void setUseFrameMailbox(boolean frameMailbox) {
+        this.frameMailbox = frameMailbox;
+        saveAsync();
+    }
+
+    /**
+     * @return whether browser textures are allocated in 256 pixel steps, see {@link MCEFRenderer#setBucketedStorage(boolean)}
+     */
+    public boolean isUsingBucketedStorage() {
+        return bucketedStorage;
+    }
+
+    public void setUseBucketedStorage(boolean bucketedStorage) {
+        this.bucketedStorage = bucketedStorage;
+        saveAsync();
+    }
+
+    /**
+     * Off by default: browsers whose texture is drawn without querying {@link MCEFRenderer#getTextureID()}
+     * every frame have to call {@link MCEFRenderer#markDrawn()} for this to work.
+     *
+     * @return how many frames a browser may go undrawn before it is hibernated, 0 if browsers never hibernate
+     */
+    public int getHibernateAfterFrames() {
+        return hibernateAfterFrames;
+    }
+
+    public void setHibernateAfterFrames(int hibernateAfterFrames) {
+        this.hibernateAfterFrames = hibernateAfterFrames;
+        saveAsync();
+    }
+
+    /**
+     * Off by default, the message loop work is then run once every frame as it always was.
+     *
+     * @return whether CEF schedules its message loop work, instead of it being run every frame
+     */
+    public boolean isUsingExternalMessagePump() {
+        return externalMessagePump;
+    }
+
+    public void setUseExternalMessagePump(boolean externalMessagePump) {
+        this.externalMessagePump = externalMessagePump;
+        saveAsync();
+    }
+
+    /**
+     * @return how long CEF's message loop work may run for in a single frame, in microseconds
+     */
+    public int getMessagePumpBudgetMicros() {
+        return messagePumpBudgetMicros;
+    }
+
+    public void setMessagePumpBudgetMicros(int messagePumpBudgetMicros) {
+        this.messagePumpBudgetMicros = messagePumpBudgetMicros;
+        saveAsync();
+    }
+
+    /**
+     * Only supported on Linux. CEF then runs its browser process work on a thread of its own instead of
+     * Minecraft's render thread; takes effect after a restart.
+     *
+     * @return whether CEF uses a multi-threaded message loop
+     */
+    public boolean isUsingMultiThreadedMessageLoop() {
+        return multiThreadedMessageLoop;
+    }
+
+    public void setUseMultiThreadedMessageLoop(boolean multiThreadedMessageLoop) {
+        this.multiThreadedMessageLoop = multiThreadedMessageLoop;
+        saveAsync();
+    }
+
+    /**
+     * @return whether {@link MCEFClient} calls handlers which don't return anything off the CEF UI thread
+     */
+    public boolean isUsingAsyncClientDispatch() {
+        return asyncClientDispatch;
+    }
+
+    public void setUseAsyncClientDispatch(boolean asyncClientDispatch) {
+        this.asyncClientDispatch = asyncClientDispatch;
+        saveAsync();
+    }
+
     public void saveAsync() {
         CompletableFuture.runAsync(() -> {
             try {
@@ -110,6 +224,14 @@ public class MCEFSettings {
         properties.setProperty("download-mirror", String.valueOf(downloadMirror));
         properties.setProperty("user-agent", String.valueOf(userAgent));
         properties.setProperty("use-cache", String.valueOf(useCache));
+        properties.setProperty("streaming-upload", String.valueOf(streamingUpload));
+        properties.setProperty("frame-mailbox", String.valueOf(frameMailbox));
+        properties.setProperty("bucketed-storage", String.valueOf(bucketedStorage));
+        properties.setProperty("hibernate-after-frames", String.valueOf(hibernateAfterFrames));
+        properties.setProperty("external-message-pump", String.valueOf(externalMessagePump));
+        properties.setProperty("message-pump-budget-micros", String.valueOf(messagePumpBudgetMicros));
+        properties.setProperty("multi-threaded-message-loop", String.valueOf(multiThreadedMessageLoop));
+        properties.setProperty("async-client-dispatch", String.valueOf(asyncClientDispatch));
 
         try (FileOutputStream output = new FileOutputStream(file)) {
             properties.store(output, null);
@@ -134,6 +256,14 @@ public class MCEFSettings {
             downloadMirror = properties.getProperty("download-mirror");
             userAgent = properties.getProperty("user-agent");
             useCache = Boolean.parseBoolean(properties.getProperty("use-cache"));
+            streamingUpload = Boolean.parseBoolean(properties.getProperty("streaming-upload", String.valueOf(streamingUpload)));
+            frameMailbox = Boolean.parseBoolean(properties.getProperty("frame-mailbox", String.valueOf(frameMailbox)));
+            bucketedStorage = Boolean.parseBoolean(properties.getProperty("bucketed-storage", String.valueOf(bucketedStorage)));
+            hibernateAfterFrames = Integer.parseInt(properties.getProperty("hibernate-after-frames", String.valueOf(hibernateAfterFrames)));
+            externalMessagePump = Boolean.parseBoolean(properties.getProperty("external-message-pump", String.valueOf(externalMessagePump)));
+            messagePumpBudgetMicros = Integer.parseInt(properties.getProperty("message-pump-budget-micros", String.valueOf(messagePumpBudgetMicros)));
+            multiThreadedMessageLoop = Boolean.parseBoolean(properties.getProperty("multi-threaded-message-loop", String.valueOf(multiThreadedMessageLoop)));
+            asyncClientDispatch = Boolean.parseBoolean(properties.getProperty("async-client-dispatch", String.valueOf(asyncClientDispatch)));
         } catch (Exception e) {
             // Delete and re-create the file if there was a parsing error
             if (deleteRetries++ > 20)
@@ -0,0 +1,120 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+/**
+ * Spreads wheel scrolling over several frames. Every wheel event adds to the distance left to scroll, and each frame
+ * a part of that distance is scrolled, easing out exponentially: the scroll starts fast and slows down as it
+ * reaches its target, regardless of the frame rate. Each frame only scrolls a little, so CEF paints many small
+ * steps instead of one large jump.
+ */
+public class MCEFSmoothScroller {
+    /**
+     * Distances smaller than this are scrolled in one go, so the scroll actually ends.
+     */
+    private static final double EPSILON = 0.01;
+
+    private boolean enabled = false;
+    private long timeConstantNanos = 50_000_000;
+
+    private double remaining = 0;
+    private int mouseX, mouseY, modifiers;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getTimeConstantNanos() {
+        return timeConstantNanos;
+    }
+
+    /**
+     * @param timeConstantNanos how long it takes to scroll about two thirds of the remaining distance;
+     *                          a scroll takes roughly five times this to settle
+     */
+    public void setTimeConstantNanos(long timeConstantNanos) {
+        this.timeConstantNanos = Math.max(1, timeConstantNanos);
+    }
+
+    /**
+     * @return the wheel amount that is still to be scrolled
+     */
+    public double getRemaining() {
+        return remaining;
+    }
+
+    public boolean isScrolling() {
+        return remaining != 0;
+    }
+
+    /**
+     * Adds a wheel event to the distance left to scroll.
+     *
+     * @return false if a scroll with other modifiers is still going on, it has to be finished with {@link #finish()} first
+     */
+    boolean add(int mouseX, int mouseY, double amount, int modifiers) {
+        if (remaining != 0 && modifiers != this.modifiers) return false;
+        // scrolling the other way stops the current scroll right away
+        if (remaining != 0 && Math.signum(amount) != Math.signum(remaining)) remaining = 0;
+        remaining += amount;
+        this.mouseX = mouseX;
+        this.mouseY = mouseY;
+        this.modifiers = modifiers;
+        return true;
+    }
+
+    /**
+     * @param frameTimeNanos how long the last frame took
+     * @return the wheel amount to scroll in this frame
+     */
+    double step(long frameTimeNanos) {
+        if (remaining == 0) return 0;
+        double step = remaining * (1 - Math.exp(-(double) frameTimeNanos / timeConstantNanos));
+        if (Math.abs(remaining - step) < EPSILON) step = remaining;
+        remaining -= step;
+        return step;
+    }
+
+    /**
+     * @return the wheel amount that was left to scroll, it should be scrolled right away
+     */
+    double finish() {
+        double step = remaining;
+        remaining = 0;
+        return step;
+    }
+
+    int getMouseX() {
+        return mouseX;
+    }
+
+    int getMouseY() {
+        return mouseY;
+    }
+
+    int getModifiers() {
+        return modifiers;
+    }
+}
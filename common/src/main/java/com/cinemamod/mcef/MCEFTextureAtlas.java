@@ -0,0 +1,256 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import com.mojang.blaze3d.platform.GlStateManager;
+import com.mojang.blaze3d.systems.RenderSystem;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GLCapabilities;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL12.*;
+
+/**
+ * Packs the views of small browsers (HUD widgets, scoreboards, tickers) into shared large textures, called pages.
+ * Browsers using the same atlas (see {@link MCEFBrowser#useAtlas(MCEFTextureAtlas)}) mostly end up on the same page,
+ * and so share {@link MCEFRenderer#getTextureID()}: their quads, using {@link MCEFRenderer#getU0()} to
+ * {@link MCEFRenderer#getV1()}, can be written into one buffer and drawn with a single texture bind and draw call.
+ * <p>
+ * Pages are split into shelves (rows) of regions. Views larger than half a page don't go in the atlas,
+ * their renderer keeps using a texture of its own. All methods must be called on the render thread.
+ */
+public class MCEFTextureAtlas {
+    /**
+     * Regions are allocated in multiples of this, so that small resizes fit in the same region.
+     */
+    private static final int REGION_ALIGNMENT = 16;
+
+    private final int pageSize;
+    private final List<Page> pages = new ArrayList<>();
+    private int regions = 0;
+
+    public MCEFTextureAtlas() {
+        this(2048);
+    }
+
+    /**
+     * @param pageSize the width and height of each page texture
+     */
+    public MCEFTextureAtlas(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * @return how many regions are in use, across all pages
+     */
+    public int getRegionCount() {
+        return regions;
+    }
+
+    /**
+     * Finds room for a view, on an existing page if possible.
+     *
+     * @return the region, or null if the view is too large for the atlas
+     */
+    Region allocate(int width, int height) {
+        width = (width + REGION_ALIGNMENT - 1) / REGION_ALIGNMENT * REGION_ALIGNMENT;
+        height = (height + REGION_ALIGNMENT - 1) / REGION_ALIGNMENT * REGION_ALIGNMENT;
+        if (width <= 0 || height <= 0 || width > pageSize / 2 || height > pageSize / 2) return null;
+
+        for (Page page : pages) {
+            Region region = page.allocate(width, height);
+            if (region != null) {
+                regions++;
+                return region;
+            }
+        }
+
+        Page page = new Page(createTexture());
+        pages.add(page);
+        regions++;
+        return page.allocate(width, height);
+    }
+
+    private void free(Region region) {
+        if (region.free) return;
+        region.free = true;
+        regions--;
+
+        Page page = region.page;
+        Shelf shelf = region.shelf;
+        // give the space at the end of the shelf back, so it can be used for any width again
+        while (!shelf.regions.isEmpty() && shelf.regions.get(shelf.regions.size() - 1).free) {
+            Region last = shelf.regions.remove(shelf.regions.size() - 1);
+            shelf.nextX = last.x;
+        }
+        if (--page.regions == 0) {
+            GlStateManager._deleteTexture(page.textureID);
+            pages.remove(page);
+        }
+    }
+
+    /**
+     * Deletes every page. Renderers still using the atlas must not be drawn afterwards.
+     */
+    public void cleanup() {
+        for (Page page : pages) GlStateManager._deleteTexture(page.textureID);
+        pages.clear();
+        regions = 0;
+    }
+
+    private int createTexture() {
+        int textureID = glGenTextures();
+        RenderSystem.bindTexture(textureID);
+        RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+
+        GLCapabilities capabilities = GL.getCapabilities();
+        if (capabilities.OpenGL42 || capabilities.GL_ARB_texture_storage) {
+            GL42.glTexStorage2D(GL_TEXTURE_2D, 1, GL_RGBA8, pageSize, pageSize);
+        } else {
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, pageSize, pageSize, 0,
+                    GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, (ByteBuffer) null);
+        }
+        return textureID;
+    }
+
+    private final class Page {
+        private final int textureID;
+        private final List<Shelf> shelves = new ArrayList<>();
+        private int nextY = 0;
+        private int regions = 0;
+
+        private Page(int textureID) {
+            this.textureID = textureID;
+        }
+
+        private MCEFTextureAtlas atlas() {
+            return MCEFTextureAtlas.this;
+        }
+
+        private Region allocate(int width, int height) {
+            for (Shelf shelf : shelves) {
+                // don't put short views on tall shelves, that wastes the space above them
+                if (shelf.height < height || shelf.height > height * 2) continue;
+                Region region = shelf.allocate(this, width, height);
+                if (region != null) {
+                    regions++;
+                    return region;
+                }
+            }
+            if (nextY + height > pageSize) return null;
+
+            Shelf shelf = new Shelf(nextY, height);
+            shelves.add(shelf);
+            nextY += height;
+            regions++;
+            return shelf.allocate(this, width, height);
+        }
+    }
+
+    private final class Shelf {
+        private final int y;
+        private final int height;
+        private final List<Region> regions = new ArrayList<>();
+        private int nextX = 0;
+
+        private Shelf(int y, int height) {
+            this.y = y;
+            this.height = height;
+        }
+
+        private Region allocate(Page page, int width, int height) {
+            for (Region region : regions) {
+                if (region.free && region.width >= width && region.width <= width * 2) {
+                    region.free = false;
+                    return region;
+                }
+            }
+            if (nextX + width > pageSize) return null;
+
+            Region region = new Region(page, this, nextX, y, width, this.height);
+            regions.add(region);
+            nextX += width;
+            return region;
+        }
+    }
+
+    /**
+     * The part of a page a view was given. Its size may be larger than the view.
+     */
+    static final class Region {
+        private final Page page;
+        private final Shelf shelf;
+        private final int x, y, width, height;
+        private boolean free = false;
+
+        private Region(Page page, Shelf shelf, int x, int y, int width, int height) {
+            this.page = page;
+            this.shelf = shelf;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Gives the region back to its atlas.
+         */
+        void release() {
+            page.atlas().free(this);
+        }
+
+        int getTextureID() {
+            return page.textureID;
+        }
+
+        int getX() {
+            return x;
+        }
+
+        int getY() {
+            return y;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides, once per frame, which browsers get to upload their newest frame.
+ * <p>
+ * Renderers using a frame mailbox (see {@link MCEFRenderer#setUseFrameMailbox(boolean)}) are uploaded in priority
+ * order until the per-frame byte or time budget runs out; the rest are deferred to a later frame. Deferring never
+ * loses anything, since the mailbox always holds the newest frame. Focused browsers go first, then browsers which were drawn
+ * last frame, then the ones which were deferred the longest. At least one upload happens every frame.
+ * <p>
+ * The rest of the per-frame work of a browser is done by {@link MCEFBrowserTicker}, right before this.
+ */
+public final class MCEFUploadScheduler {
+    // The browsers with a frame to upload, only held while the frame is scheduled
+    private static final List<MCEFBrowser> PENDING = new ArrayList<>();
+    private static final Comparator<MCEFBrowser> PRIORITY = Comparator
+            .comparingInt(MCEFUploadScheduler::priority)
+            .thenComparingInt(browser -> -browser.getRenderer().getConsecutiveDeferrals());
+
+    private static long byteBudget = 16L * 1024 * 1024;
+    private static long timeBudgetNanos = 4_000_000;
+
+    private MCEFUploadScheduler() {
+    }
+
+    public static long getByteBudget() {
+        return byteBudget;
+    }
+
+    /**
+     * @param byteBudget how many bytes all browsers may upload in a single frame, combined
+     */
+    public static void setByteBudget(long byteBudget) {
+        MCEFUploadScheduler.byteBudget = byteBudget;
+    }
+
+    public static long getTimeBudgetNanos() {
+        return timeBudgetNanos;
+    }
+
+    /**
+     * @param timeBudgetNanos how long all browsers may spend uploading in a single frame, combined
+     */
+    public static void setTimeBudgetNanos(long timeBudgetNanos) {
+        MCEFUploadScheduler.timeBudgetNanos = timeBudgetNanos;
+    }
+
+    /**
+     * This gets called by {@link com.cinemamod.mcef.mixins.CefRenderUpdateMixin} once per frame,
+     * after {@link MCEFBrowserTicker#tick()}. This should not be called by anything else.
+     */
+    public static void uploadFrames() {
+        MCEFBrowserTicker.collectBrowsers(PENDING);
+        PENDING.removeIf(browser -> !browser.getRenderer().hasPendingFrame());
+        if (PENDING.isEmpty()) return;
+        PENDING.sort(PRIORITY);
+
+        long start = System.nanoTime();
+        long bytes = 0;
+        boolean uploaded = false;
+        for (MCEFBrowser browser : PENDING) {
+            MCEFRenderer renderer = browser.getRenderer();
+            boolean overBudget = bytes + renderer.getPendingBytes() > byteBudget ||
+                    System.nanoTime() - start > timeBudgetNanos;
+            if (uploaded && overBudget) {
+                renderer.deferFrame();
+                continue;
+            }
+            bytes += renderer.uploadFrame();
+            uploaded = true;
+        }
+        PENDING.clear();
+    }
+
+    private static int priority(MCEFBrowser browser) {
+        if (browser.isFocused()) return 0;
+        if (browser.getRenderer().getLastDrawnFrame() >= MCEFBrowserTicker.getFrame() - 1) return 1;
+        return 2;
+    }
+}
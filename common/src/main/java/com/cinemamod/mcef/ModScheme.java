@@ -31,12 +31,78 @@ import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 // https://github.com/CinemaMod/mcef/blob/master-1.19.2/src/main/java/net/montoyo/mcef/example/ModScheme.java
 public class ModScheme implements CefResourceHandler {
+    /**
+     * Resources only change with the mods shipping them, so the browser may keep them for a while
+     * and revalidate with the ETag afterwards.
+     */
+    private static final String CACHE_CONTROL = "max-age=3600";
+    /**
+     * Lookups and reads of resources which aren't cached run here, so a cold jar read never blocks CEF's IO thread.
+     */
+    private static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("MCEF-ModScheme-", 0).factory());
+    /**
+     * How many lookups and reads may run at once; the rest wait for a permit, which costs a virtual thread nothing.
+     */
+    public static final int MAX_CONCURRENT_READS = 8;
+    private static final Semaphore PERMITS = new Semaphore(MAX_CONCURRENT_READS);
+    /**
+     * How much of a streamed resource is read ahead at a time.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final LongAdder REQUESTS = new LongAdder();
+    private static final LongAdder ASYNC_REQUESTS = new LongAdder();
+    private static final LongAdder DEFERRED_READS = new LongAdder();
+    private static final AtomicLong WAIT_NANOS = new AtomicLong();
+    private static final AtomicLong LOOKUP_NANOS = new AtomicLong();
+    private static final AtomicLong MAX_LOOKUP_NANOS = new AtomicLong();
+
     private String contentType = null;
-    private InputStream is = null;
+    private volatile InputStream is = null;
+    private MCEFResourceCache.Resource resource = null;
+    /**
+     * The part of the resource which wasn't read yet.
+     */
+    private ByteBuffer cursor = null;
+    private long length = -1;
+    /**
+     * The size of the whole resource, -1 if unknown; differs from {@link #length} for range requests.
+     */
+    private long totalLength = -1;
+    private long rangeStart, rangeEnd;
+    /**
+     * How much of {@link #is} may still be read, bounded by a range request.
+     */
+    private long streamRemaining = Long.MAX_VALUE;
+    private int status = 200;
+    /**
+     * Set once the response is ready; written last by the executor, read first by CEF.
+     */
+    private volatile boolean prepared = false;
+    private volatile boolean cancelled = false;
+
+    // Read-ahead of a streamed resource, guarded by this
+    private byte[] chunk;
+    private int chunkOffset, chunkLength;
+    private boolean reading = false;
+    private boolean streamEnded = false;
+    private CefCallback readCallback;
 
     private final String url;
 
@@ -65,24 +131,174 @@ public class ModScheme implements CefResourceHandler {
             return false;
         }
 
-        // TODO: this may or may not require neoforge/fabric specific code?
-//        is = ModList.get().getModContainerById(mod).get().getMod().getClass().getResourceAsStream("/assets/" + mod.toLowerCase(Locale.US) + "/html/" + loc.toLowerCase());
-        is = ModScheme.class.getClassLoader().getResourceAsStream("/assets/" + mod.toLowerCase(Locale.US) + "/html/" + loc.toLowerCase(Locale.US));
-        if (is == null) {
-            LOGGER.warn("Resource " + url + " NOT found!");
-            cefCallback.cancel();
-            return false; // TODO: 404?
-        }
-
+        String key = mod.toLowerCase(Locale.US) + "/" + loc.toLowerCase(Locale.US);
         contentType = null;
         pos = loc.lastIndexOf('.');
         if (pos >= 0 && pos < loc.length() - 2)
             contentType = MIMEUtil.mimeFromExtension(loc.substring(pos + 1));
+        // the request is only valid during this call
+        String ifNoneMatch = cefRequest.getHeaderByName("If-None-Match");
+        String range = cefRequest.getHeaderByName("Range");
+        REQUESTS.increment();
+
+        resource = MCEFResourceCache.get(key);
+        if (resource != null) {
+            // cached, there is nothing to wait for
+            try {
+                prepare(ifNoneMatch, range);
+            } catch (IOException e) {
+                LOGGER.warn("Could not seek in resource " + url, e);
+                cefCallback.cancel();
+                return false;
+            }
+            cefCallback.Continue();
+            return true;
+        }
+
+        ASYNC_REQUESTS.increment();
+        long queued = System.nanoTime();
+        EXECUTOR.execute(() -> {
+            boolean ready = false;
+            try {
+                PERMITS.acquireUninterruptibly();
+                long start = System.nanoTime();
+                try {
+                    if (cancelled) return;
+                    resolve(mod, loc, key, url);
+                    prepare(ifNoneMatch, range);
+                    // read ahead the first chunk while the headers are sent
+                    if (is != null) fill();
+                    ready = true;
+                } catch (IOException | URISyntaxException e) {
+                    if (!cancelled) LOGGER.warn("Could not read resource " + url, e);
+                } finally {
+                    PERMITS.release();
+                }
 
-        cefCallback.Continue();
+                long lookup = System.nanoTime() - start;
+                WAIT_NANOS.addAndGet(start - queued);
+                LOOKUP_NANOS.addAndGet(lookup);
+                MAX_LOOKUP_NANOS.accumulateAndGet(lookup, Math::max);
+                if (cancelled) return;
+                if (ready) cefCallback.Continue();
+                else cefCallback.cancel();
+            } finally {
+                // a request cancelled while it was being opened still has its stream (maybe a jar entry) open
+                if (!ready || cancelled) closeStream();
+            }
+        });
         return true;
     }
 
+    private void resolve(String mod, String loc, String key, String url) throws IOException, URISyntaxException {
+        Path indexed = MCEFAssetIndex.find(mod, loc);
+        if (indexed != null) {
+            open(key, indexed);
+        } else if (MCEFAssetIndex.isReady()) {
+            // every mod's resources are indexed, so this doesn't exist anywhere
+            status = 404;
+            length = 0;
+        } else {
+            // the index is still being built
+            // class loader paths are never absolute, a leading slash makes every lookup fail
+            URL location = ModScheme.class.getClassLoader().getResource("assets/" + mod.toLowerCase(Locale.US) + "/html/" + loc.toLowerCase(Locale.US));
+            if (location == null) {
+                status = 404;
+                length = 0;
+            } else if (location.getProtocol().equals("file")) {
+                open(key, Path.of(location.toURI()));
+            } else {
+                URLConnection connection = location.openConnection();
+                open(key, connection.getInputStream(), connection.getContentLengthLong());
+            }
+        }
+        if (status == 404) LOGGER.warn("Resource " + url + " NOT found!");
+    }
+
+    private void prepare(String ifNoneMatch, String range) throws IOException {
+        if (resource != null) {
+            cursor = resource.getData();
+            length = resource.getLength();
+            // the browser already has this version
+            if (resource.getETag().equals(ifNoneMatch)) {
+                status = 304;
+                length = 0;
+                cursor = null;
+            }
+        }
+
+        totalLength = length;
+        if (status == 200 && length >= 0 && range != null && !range.isEmpty())
+            applyRange(range);
+        prepared = true;
+    }
+
+    private void open(String key, Path path) throws IOException {
+        if (path.getFileSystem() == FileSystems.getDefault()) {
+            // unpacked resources may change while the game runs, the cache checks them on every request
+            resource = MCEFResourceCache.getFile(key, path);
+        } else {
+            open(key, Files.newInputStream(path), Files.size(path));
+        }
+    }
+
+    private void open(String key, InputStream stream, long size) throws IOException {
+        is = stream;
+        length = size;
+        if (length >= 0 && length <= MCEFResourceCache.getMaxEntryBytes()) {
+            resource = MCEFResourceCache.Resource.of(is.readAllBytes());
+            is.close();
+            is = null;
+            MCEFResourceCache.put(key, resource);
+        }
+    }
+
+    /**
+     * Narrows the response down to the requested byte range, so media can seek without reading from the start.
+     * Only single ranges are supported; anything else is answered with the whole resource, which is allowed.
+     */
+    private void applyRange(String header) throws IOException {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) return;
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return;
+
+        long start, end;
+        try {
+            if (dash == 0) {
+                // the last n bytes
+                start = Math.max(0, totalLength - Long.parseLong(spec.substring(1)));
+                end = totalLength - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? totalLength - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), totalLength - 1);
+            }
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        if (start >= totalLength || start > end) {
+            status = 416;
+            length = 0;
+            cursor = null;
+            closeStream();
+            return;
+        }
+
+        status = 206;
+        rangeStart = start;
+        rangeEnd = end;
+        length = end - start + 1;
+        if (cursor != null) {
+            // cached and mapped resources seek for free
+            cursor.position((int) start).limit((int) end + 1);
+        } else {
+            // a compressed jar entry still has to be inflated up to the start
+            is.skipNBytes(start);
+            streamRemaining = length;
+        }
+    }
+
     private String removeSlashes(String loc) {
         int i = 0;
         while (i < loc.length() && loc.charAt(i) == '/')
@@ -93,46 +309,189 @@ public class ModScheme implements CefResourceHandler {
 
     @Override
     public void getResponseHeaders(CefResponse cefResponse, IntRef contentLength, StringRef redir) {
+        // reading the flag makes everything the executor prepared visible here
+        if (!prepared) LOGGER.warn("Response headers of " + url + " requested before they were ready");
         if (contentType != null)
             cefResponse.setMimeType(contentType);
 
-        cefResponse.setStatus(200);
-        cefResponse.setStatusText("OK");
-        contentLength.set(0);
+        cefResponse.setStatus(status);
+        cefResponse.setStatusText(switch (status) {
+            case 206 -> "Partial Content";
+            case 304 -> "Not Modified";
+            case 404 -> "Not Found";
+            case 416 -> "Range Not Satisfiable";
+            default -> "OK";
+        });
+        // a missing resource may show up with a mod, don't let the browser remember it
+        cefResponse.setHeaderByName("Cache-Control", status == 404 ? "no-store" : CACHE_CONTROL, true);
+        if (resource != null)
+            cefResponse.setHeaderByName("ETag", resource.getETag(), true);
+        if (totalLength >= 0 && status != 404)
+            cefResponse.setHeaderByName("Accept-Ranges", "bytes", true);
+        if (status == 206)
+            cefResponse.setHeaderByName("Content-Range", "bytes " + rangeStart + "-" + rangeEnd + "/" + totalLength, true);
+        else if (status == 416)
+            cefResponse.setHeaderByName("Content-Range", "bytes */" + totalLength, true);
+        // -1 tells CEF the length is unknown
+        contentLength.set((int) Math.min(length, Integer.MAX_VALUE));
     }
 
     @Override
     public boolean readResponse(byte[] output, int bytesToRead, IntRef bytesRead, CefCallback cefCallback) {
-        try {
-            int ret = is.read(output, 0, bytesToRead);
-            if (ret <= 0) {
-                is.close();
+        if (is == null) {
+            int remaining = cursor == null ? 0 : cursor.remaining();
+            if (remaining <= 0) {
+                bytesRead.set(0);
+                return false;
+            }
+
+            // a single bulk copy, straight from the cached or mapped bytes
+            int count = Math.min(bytesToRead, remaining);
+            cursor.get(output, 0, count);
+            bytesRead.set(count);
+            return true;
+        }
+
+        synchronized (this) {
+            if (chunkOffset < chunkLength) {
+                int count = Math.min(bytesToRead, chunkLength - chunkOffset);
+                System.arraycopy(chunk, chunkOffset, output, 0, count);
+                chunkOffset += count;
+                // read the next chunk while CEF consumes this one
+                if (chunkOffset == chunkLength && !streamEnded && !reading) readAhead();
+                bytesRead.set(count);
+                return true;
+            }
+            if (streamEnded) {
+                closeStream();
                 // 0 bytes read indicates to CEF/JCEF that there is no more data to read
                 bytesRead.set(0);
                 return false;
             }
 
-            // tell CEF/JCEF how many bytes were read
-            bytesRead.set(ret);
+            // the next chunk isn't there yet; returning true without data makes CEF wait for the callback
+            if (!reading) readAhead();
+            readCallback = cefCallback;
+            DEFERRED_READS.increment();
+            bytesRead.set(0);
             return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            // attempt to close the stream if possible
+        }
+    }
+
+    /**
+     * Reads the next chunk of a streamed resource on the executor. Called with the lock held.
+     */
+    private void readAhead() {
+        reading = true;
+        EXECUTOR.execute(() -> {
+            PERMITS.acquireUninterruptibly();
             try {
-                is.close();
-            } catch (Throwable ignored) {
+                if (!cancelled) fill();
+            } finally {
+                PERMITS.release();
             }
+        });
+    }
 
-            return false;
+    /**
+     * Reads the next chunk of a streamed resource, then resumes CEF if it was waiting for it.
+     * Runs on the executor, never on CEF's IO thread.
+     */
+    private void fill() {
+        if (chunk == null) chunk = new byte[CHUNK_SIZE];
+        // cancel() may close the stream from CEF's thread at any time
+        InputStream is = this.is;
+        int count;
+        try {
+            int max = (int) Math.min(CHUNK_SIZE, streamRemaining);
+            count = max <= 0 || is == null ? -1 : is.read(chunk, 0, max);
+        } catch (IOException e) {
+            if (!cancelled) LOGGER.warn("Could not read resource " + url, e);
+            count = -1;
         }
+
+        CefCallback callback;
+        synchronized (this) {
+            if (count < 0) {
+                streamEnded = true;
+            } else {
+                chunkOffset = 0;
+                chunkLength = count;
+                streamRemaining -= count;
+            }
+            reading = false;
+            callback = readCallback;
+            readCallback = null;
+        }
+        if (callback != null && !cancelled) callback.Continue();
     }
 
-    @Override
-    public void cancel() {
-        // attempt to free resources, just incase
+    private void closeStream() {
+        InputStream is = this.is;
+        if (is == null) return;
+        this.is = null;
         try {
             is.close();
         } catch (Throwable ignored) {
         }
     }
+
+    @Override
+    public void cancel() {
+        // attempt to free resources, just incase
+        cancelled = true;
+        closeStream();
+    }
+
+    // Stats
+
+    public static long getRequests() {
+        return REQUESTS.sum();
+    }
+
+    /**
+     * @return how many requests weren't cached and were processed on the executor
+     */
+    public static long getAsyncRequests() {
+        return ASYNC_REQUESTS.sum();
+    }
+
+    /**
+     * @return how many times CEF had to wait for a chunk of a streamed resource
+     */
+    public static long getDeferredReads() {
+        return DEFERRED_READS.sum();
+    }
+
+    /**
+     * @return how many lookups and reads are running right now
+     */
+    public static int getActiveReads() {
+        return MAX_CONCURRENT_READS - PERMITS.availablePermits();
+    }
+
+    /**
+     * @return how many lookups and reads are waiting for {@link #MAX_CONCURRENT_READS}
+     */
+    public static int getQueuedReads() {
+        return PERMITS.getQueueLength();
+    }
+
+    /**
+     * @return how long asynchronous requests waited for a permit, in total
+     */
+    public static long getWaitNanos() {
+        return WAIT_NANOS.get();
+    }
+
+    /**
+     * @return how long the lookups of asynchronous requests took, in total
+     */
+    public static long getLookupNanos() {
+        return LOOKUP_NANOS.get();
+    }
+
+    public static long getMaxLookupNanos() {
+        return MAX_LOOKUP_NANOS.get();
+    }
 }
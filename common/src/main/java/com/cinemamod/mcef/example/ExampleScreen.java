@@ -34,6 +34,8 @@ import net.minecraft.client.gui.screens.Screen;
 import net.minecraft.client.renderer.CoreShaders;
 import net.minecraft.network.chat.Component;
 
+import java.awt.Rectangle;
+
 public class ExampleScreen extends Screen {
     private static final int BROWSER_DRAW_OFFSET = 20;
 
@@ -50,6 +52,8 @@ public class ExampleScreen extends Screen {
             String url = "https://www.google.com";
             boolean transparent = true;
             browser = MCEF.createBrowser(url, transparent);
+            // popups are drawn as a second quad below, instead of being blitted into the browser texture
+            browser.useSeparatePopupLayer(true);
             resizeBrowser();
         }
     }
@@ -94,13 +98,36 @@ public class ExampleScreen extends Screen {
         RenderSystem.disableDepthTest();
         RenderSystem.setShader(CoreShaders.POSITION_TEX_COLOR);
         RenderSystem.setShaderTexture(0, browser.getRenderer().getTextureID());
+        // the view only covers part of the texture
+        float u0 = browser.getRenderer().getU0();
+        float v0 = browser.getRenderer().getV0();
+        float u1 = browser.getRenderer().getU1();
+        float v1 = browser.getRenderer().getV1();
         Tesselator t = Tesselator.getInstance();
         BufferBuilder buffer = t.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_TEX_COLOR);
-        buffer.addVertex(BROWSER_DRAW_OFFSET, height - BROWSER_DRAW_OFFSET, 0).setUv(0.0f, 1.0f).setColor(255, 255, 255, 255);
-        buffer.addVertex(width - BROWSER_DRAW_OFFSET, height - BROWSER_DRAW_OFFSET, 0).setUv(1.0f, 1.0f).setColor(255, 255, 255, 255);
-        buffer.addVertex(width - BROWSER_DRAW_OFFSET, BROWSER_DRAW_OFFSET, 0).setUv(1.0f, 0.0f).setColor(255, 255, 255, 255);
-        buffer.addVertex(BROWSER_DRAW_OFFSET, BROWSER_DRAW_OFFSET, 0).setUv(0.0f, 0.0f).setColor(255, 255, 255, 255);
+        buffer.addVertex(BROWSER_DRAW_OFFSET, height - BROWSER_DRAW_OFFSET, 0).setUv(u0, v1).setColor(255, 255, 255, 255);
+        buffer.addVertex(width - BROWSER_DRAW_OFFSET, height - BROWSER_DRAW_OFFSET, 0).setUv(u1, v1).setColor(255, 255, 255, 255);
+        buffer.addVertex(width - BROWSER_DRAW_OFFSET, BROWSER_DRAW_OFFSET, 0).setUv(u1, v0).setColor(255, 255, 255, 255);
+        buffer.addVertex(BROWSER_DRAW_OFFSET, BROWSER_DRAW_OFFSET, 0).setUv(u0, v0).setColor(255, 255, 255, 255);
         BufferUploader.drawWithShader(buffer.build());
+
+        // Popups (e.g. dropdowns) are a separate layer here, drawn over the browser
+        if (browser.getRenderer().isPopupVisible()) {
+            Rectangle popup = browser.getRenderer().getPopupRect();
+            float scale = (float) minecraft.getWindow().getGuiScale();
+            float x0 = BROWSER_DRAW_OFFSET + popup.x / scale;
+            float y0 = BROWSER_DRAW_OFFSET + popup.y / scale;
+            float x1 = x0 + popup.width / scale;
+            float y1 = y0 + popup.height / scale;
+            RenderSystem.setShaderTexture(0, browser.getRenderer().getPopupTextureID());
+            buffer = t.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_TEX_COLOR);
+            buffer.addVertex(x0, y1, 0).setUv(0.0f, 1.0f).setColor(255, 255, 255, 255);
+            buffer.addVertex(x1, y1, 0).setUv(1.0f, 1.0f).setColor(255, 255, 255, 255);
+            buffer.addVertex(x1, y0, 0).setUv(1.0f, 0.0f).setColor(255, 255, 255, 255);
+            buffer.addVertex(x0, y0, 0).setUv(0.0f, 0.0f).setColor(255, 255, 255, 255);
+            BufferUploader.drawWithShader(buffer.build());
+        }
+
         RenderSystem.setShaderTexture(0, 0);
         RenderSystem.enableDepthTest();
     }
@@ -0,0 +1,34 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef.listeners;
+
+import com.cinemamod.mcef.MCEFBrowser;
+import org.cef.CefSettings;
+
+@FunctionalInterface
+public interface MCEFConsoleListener {
+    /**
+     * Called for every console message that made it through deduplication and rate limiting.
+     *
+     * @param dropped how many messages of the browser were dropped since the previous one that was delivered
+     */
+    void onConsoleMessage(MCEFBrowser browser, CefSettings.LogSeverity level, String message, String source, int line, long dropped);
+}
@@ -21,6 +21,10 @@
 package com.cinemamod.mcef.mixins;
 
 import com.cinemamod.mcef.MCEF;
+import com.cinemamod.mcef.MCEFBrowserTicker;
+import com.cinemamod.mcef.MCEFMessagePump;
+import com.cinemamod.mcef.MCEFRenderQueue;
+import com.cinemamod.mcef.MCEFUploadScheduler;
 import net.minecraft.client.DeltaTracker;
 import net.minecraft.client.renderer.GameRenderer;
 import org.spongepowered.asm.mixin.Mixin;
@@ -33,7 +37,10 @@ public class CefRenderUpdateMixin {
     @Inject(at = @At("HEAD"), method = "render")
     public void preRender(DeltaTracker deltaTracker, boolean renderLevel, CallbackInfo ci) {
         if (MCEF.isInitialized()) {
-            MCEF.getApp().getHandle().N_DoMessageLoopWork();
+            MCEFMessagePump.pump();
+            MCEFRenderQueue.drain();
+            MCEFBrowserTicker.tick();
+            MCEFUploadScheduler.uploadFrames();
         }
     }
 }
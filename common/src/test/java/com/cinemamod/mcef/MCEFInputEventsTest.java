@@ -0,0 +1,106 @@
+/*
+ *     MCEF (Minecraft Chromium Embedded Framework)
+ *     Copyright (C) 2023 CinemaMod Group
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ */
+
+package com.cinemamod.mcef;
+
+import org.cef.event.CefMouseEvent;
+import org.cef.event.CefMouseWheelEvent;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class MCEFInputEventsTest {
+    private static final int SENDS = 100_000;
+    private static volatile long sink;
+
+    public static class Fields {
+        public int mutable;
+        public final int fixed = 0;
+        public static int shared;
+    }
+
+    @Test
+    void writableFieldIsAccepted() throws ReflectiveOperationException {
+        VarHandle handle = MCEFInputEvents.writable(Fields.class, "mutable", int.class);
+        Fields fields = new Fields();
+        handle.set(fields, 42);
+        assertEquals(42, fields.mutable);
+    }
+
+    @Test
+    void unwritableFieldIsRejected() {
+        assertThrows(NoSuchFieldException.class, () -> MCEFInputEvents.writable(Fields.class, "fixed", int.class));
+        assertThrows(NoSuchFieldException.class, () -> MCEFInputEvents.writable(Fields.class, "shared", int.class));
+        assertThrows(NoSuchFieldException.class, () -> MCEFInputEvents.writable(Fields.class, "mutable", long.class));
+        assertThrows(NoSuchFieldException.class, () -> MCEFInputEvents.writable(Fields.class, "missing", int.class));
+    }
+
+    @Test
+    void eventsAreReusedWhenWritable() throws ReflectiveOperationException {
+        assumeTrue(MCEFInputEvents.isReusingEvents(), "java-cef build has no writable event fields");
+        MCEFInputEvents events = new MCEFInputEvents();
+        assertTrue(events.isReusing());
+
+        CefMouseEvent first = events.mouse(CefMouseEvent.MOUSE_PRESSED, 1, 2, 1, 1, 0);
+        CefMouseEvent second = events.mouse(CefMouseEvent.MOUSE_RELEASED, 3, 4, 2, 1, 0);
+        assertSame(first, second);
+        assertEquals(CefMouseEvent.MOUSE_RELEASED, CefMouseEvent.class.getField("id").getInt(second));
+        assertEquals(3, CefMouseEvent.class.getField("x").getInt(second));
+        assertEquals(4, CefMouseEvent.class.getField("y").getInt(second));
+        assertEquals(2, CefMouseEvent.class.getField("clickCount").getInt(second));
+
+        CefMouseWheelEvent wheel = events.wheel(5, 6, 0.25, 0);
+        assertSame(wheel, events.wheel(7, 8, -1.5, 0));
+        assertEquals(-1.5, CefMouseWheelEvent.class.getField("amount").getDouble(wheel));
+
+        assertTrue(allocated(events) < SENDS, "reused events should not allocate per send");
+    }
+
+    @Test
+    void eventsAreAllocatedWhenNotReused() {
+        MCEFInputEvents events = new MCEFInputEvents(false);
+        assertFalse(events.isReusing());
+
+        assertNotSame(events.mouse(CefMouseEvent.MOUSE_PRESSED, 1, 2, 1, 1, 0), events.mouse(CefMouseEvent.MOUSE_PRESSED, 1, 2, 1, 1, 0));
+        assertNotSame(events.wheel(5, 6, 0.25, 0), events.wheel(5, 6, 0.25, 0));
+
+        assertTrue(allocated(events) >= SENDS, "allocated events should allocate per send");
+    }
+
+    private static long allocated(MCEFInputEvents events) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "allocation measurement not supported");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        long hashes = 0;
+        for (int i = 0; i < SENDS; i++) hashes += events.mouse(CefMouseEvent.MOUSE_MOVED, i, i, 0, 0, 0).hashCode();
+
+        long thread = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < SENDS; i++) hashes += events.mouse(CefMouseEvent.MOUSE_MOVED, i, i, 0, 0, 0).hashCode();
+        long after = threads.getThreadAllocatedBytes(thread);
+        sink = hashes;
+        return after - before;
+    }
+}
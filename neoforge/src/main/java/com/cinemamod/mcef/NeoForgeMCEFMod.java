@@ -40,6 +40,7 @@ public class NeoForgeMCEFMod {
     }
 
     private void clientSetup(final FMLClientSetupEvent event) {
+        MCEFAssetIndex.build(new NeoForgeMCEFAssetProvider());
         if (!FMLEnvironment.production) {
             new MCEFExampleMod();
         }